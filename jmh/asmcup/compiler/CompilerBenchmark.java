@@ -0,0 +1,21 @@
+package asmcup.compiler;
+
+import asmcup.runtime.SampleBot;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompilerBenchmark {
+	private final Compiler compiler = new Compiler();
+
+	@Benchmark
+	public byte[] compile() {
+		return compiler.compile(SampleBot.SOURCE);
+	}
+}
@@ -0,0 +1,42 @@
+package asmcup.evaluation;
+
+import asmcup.runtime.SampleBot;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scores the sample bot on a fixed set of spawns, on a single thread so
+ * the result doesn't depend on the machine's core count. Runs with and
+ * without the JIT tier.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EvaluatorBenchmark {
+	@Param({"false", "true"})
+	public boolean jit;
+
+	private Evaluator evaluator;
+	private byte[] rom;
+
+	@Setup
+	public void setup() {
+		evaluator = new Evaluator(false);
+		evaluator.maxSimFrames = 10 * 60;
+		evaluator.extraWorldCount = 4;
+		evaluator.directionsPerSpawn = 4;
+		evaluator.baseSeed = 1234;
+		evaluator.threads = 1;
+		evaluator.jit = jit;
+		rom = SampleBot.compile();
+	}
+
+	@Benchmark
+	public float score() {
+		return evaluator.score(rom);
+	}
+}
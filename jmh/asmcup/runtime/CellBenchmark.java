@@ -0,0 +1,101 @@
+package asmcup.runtime;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CellBenchmark {
+	static final int SEED = 7;
+	static final int SPAN = 16;
+
+	/**
+	 * Cell.generate through a fresh world each time, either running the
+	 * Generator or copying the template another world already made.
+	 */
+	@State(Scope.Thread)
+	public static class Generation {
+		@Param({"none", "cache"})
+		public String cache;
+
+		CellCache cellCache;
+		int next;
+
+		@Setup
+		public void setup() {
+			if (cache.equals("cache")) {
+				cellCache = new CellCache();
+				World world = new World(SEED, cellCache);
+
+				for (int i = 0; i < SPAN * SPAN; i++) {
+					world.getCell(100 + i % SPAN, 100 + i / SPAN);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Tile lookups at random points, through the world's cell grid or through
+	 * a HashMap keyed like the cells used to be, for comparison.
+	 */
+	@State(Scope.Thread)
+	public static class Lookup {
+		@Param({"grid", "hashmap"})
+		public String cells;
+
+		World world;
+		HashMap<Integer, Cell> map = new HashMap<>();
+		float[] points = new float[2048];
+		int next;
+
+		@Setup
+		public void setup() {
+			world = new World(SEED, null);
+			Random random = new Random(SEED);
+
+			for (int row = 100; row < 100 + SPAN; row++) {
+				for (int col = 100; col < 100 + SPAN; col++) {
+					Cell cell = world.getCell(col, row);
+					map.put(cell.getKey(), cell);
+				}
+			}
+
+			for (int i = 0; i < points.length; i++) {
+				points[i] = (100 + random.nextFloat() * SPAN) * World.CELL_SIZE;
+			}
+		}
+
+		int tile(float x, float y) {
+			if (cells.equals("grid")) {
+				return world.getTileXY(x, y);
+			}
+
+			int col = (int)(x / World.TILE_SIZE);
+			int row = (int)(y / World.TILE_SIZE);
+			int cellCol = col / World.TILES_PER_CELL;
+			int cellRow = row / World.TILES_PER_CELL;
+			Cell cell = map.get(Cell.key(cellCol, cellRow));
+			return cell.getTile(col - cellCol * World.TILES_PER_CELL, row - cellRow * World.TILES_PER_CELL);
+		}
+	}
+
+	@Benchmark
+	public Cell generate(Generation state) {
+		int i = state.next++ % (SPAN * SPAN);
+		World world = new World(SEED, state.cellCache);
+		return world.getCell(100 + i % SPAN, 100 + i / SPAN);
+	}
+
+	@Benchmark
+	public int getTile(Lookup state) {
+		int i = state.next;
+		state.next = (i + 2) % state.points.length;
+		return state.tile(state.points[i], state.points[i + 1]);
+	}
+}
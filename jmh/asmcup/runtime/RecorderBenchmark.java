@@ -0,0 +1,153 @@
+package asmcup.runtime;
+
+import asmcup.compiler.Compiler;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of recording one io event, written to a stream that throws it away,
+ * and of a world frame with ten bots steering all the time, recorded or
+ * not. The frame benchmark prints the bytes each format wrote per frame
+ * after every iteration.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecorderBenchmark {
+	@State(Scope.Thread)
+	public static class Events {
+		@Param({"text", "binary"})
+		public String format;
+
+		private final byte[] data = {1, 0, 0, (byte)0x80, 0x3F};
+		private PrintStream text;
+		private BinaryRecorder binary;
+		private int frame;
+
+		@Setup
+		public void setup() throws IOException {
+			OutputStream discard = new OutputStream() {
+				@Override
+				public void write(int b) {
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) {
+				}
+			};
+
+			text = new PrintStream(discard);
+			binary = new BinaryRecorder(Channels.newChannel(discard));
+		}
+
+		@TearDown
+		public void tearDown() throws IOException {
+			binary.close();
+		}
+	}
+
+	// Turns a little further every pass, an io every 8 cycles
+	public static final String STEER_SOURCE = String.join("\n",
+		"loop:",
+		"  pushf steer",
+		"  pushf #0.01",
+		"  addf",
+		"  popf steer",
+		"  pushf steer",
+		"  push8 #IO_STEER",
+		"  io",
+		"  jmp loop",
+		"steer: dbf #0.0");
+
+	@State(Scope.Thread)
+	public static class Match {
+		@Param({"none", "text", "binary"})
+		public String recording;
+
+		private World world;
+		private Recorder recorder;
+		private long bytes;
+		private int frames;
+
+		@Setup(Level.Iteration)
+		public void setup() throws IOException {
+			OutputStream counter = new OutputStream() {
+				@Override
+				public void write(int b) {
+					bytes++;
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) {
+					bytes += len;
+				}
+			};
+
+			switch (recording) {
+			case "text":
+				recorder = new TextRecorder(new PrintStream(counter));
+				break;
+			case "binary":
+				recorder = new BinaryRecorder(Channels.newChannel(counter));
+				break;
+			default:
+				recorder = null;
+				break;
+			}
+
+			bytes = 0;
+			frames = 0;
+			world = new World(1);
+			SampleBot.populate(world, new Compiler().compile(STEER_SOURCE), 10, 1, recorder);
+		}
+
+		// Robots would run out of battery within an iteration
+		void recharge() {
+			for (Robot robot : world.getRobots()) {
+				robot.setBattery(Robot.BATTERY_MAX);
+			}
+		}
+
+		@TearDown(Level.Iteration)
+		public void tearDown() throws IOException {
+			if (recorder != null) {
+				recorder.close();
+			}
+
+			System.out.printf("%n%s: %.1f bytes/frame over %d frames%n",
+				recording, (double)bytes / StrictMath.max(frames, 1), frames);
+		}
+	}
+
+	@Benchmark
+	public int record(Events events) throws IOException {
+		int frame = ++events.frame;
+
+		if (events.format.equals("text")) {
+			TextRecorder.write(events.text, frame, frame & 7, events.data);
+		} else {
+			events.binary.write(frame, frame & 7, events.data);
+		}
+
+		return frame;
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public World tick(Match match) {
+		match.world.tick();
+
+		if ((++match.frames & 1023) == 0) {
+			match.recharge();
+		}
+
+		return match.world;
+	}
+}
@@ -0,0 +1,35 @@
+package asmcup.runtime;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RobotBenchmark {
+	@Param({"0", "50", "100"})
+	public int overclock;
+
+	private World world;
+	private Robot robot;
+
+	@Setup(Level.Iteration)
+	public void setup() {
+		world = new World(1);
+		SampleBot.populate(world, 1, 1);
+		robot = world.getRobots().iterator().next();
+	}
+
+	@Benchmark
+	public Robot tick() {
+		// Keep it going without ever recharging from an item
+		robot.setBattery(Robot.BATTERY_MAX);
+		robot.setOverclock(overclock);
+		robot.tick(world);
+		return robot;
+	}
+}
@@ -0,0 +1,77 @@
+package asmcup.runtime;
+
+import asmcup.compiler.Compiler;
+
+import java.util.Random;
+
+/**
+ * A small but typical bot the benchmarks run, it drives around and steers
+ * away from whatever the sensor sees close by.
+ */
+public class SampleBot {
+	public static final String SOURCE = String.join("\n",
+		"; Full speed ahead",
+		"pushf #1.0",
+		"push8 #IO_MOTOR",
+		"io",
+		"",
+		"loop:",
+		"  push8 #IO_SENSOR",
+		"  io",
+		"  pop8 hit",
+		"  popf distance",
+		"  pushf distance",
+		"  pushf #64.0",
+		"  if_ltf",
+		"  jnz turn",
+		"  c_0f",
+		"  push8 #IO_STEER",
+		"  io",
+		"  jmp loop",
+		"",
+		"turn:",
+		"  pushf #0.5",
+		"  push8 #IO_STEER",
+		"  io",
+		"  push8 #IO_BATTERY",
+		"  io",
+		"  popf battery",
+		"  jmp loop",
+		"",
+		"hit: db8 #0",
+		"distance: dbf #0.0",
+		"battery: dbf #0.0");
+
+	public static byte[] compile() {
+		return new Compiler().compile(SOURCE);
+	}
+
+	/**
+	 * Adds robots running the sample bot, placed the same way every time.
+	 */
+	public static void populate(World world, int count, long seed) {
+		populate(world, compile(), count, seed, null);
+	}
+
+	/**
+	 * Like {@link #populate(World, int, long)} with another program, and
+	 * every robot's io recorded when the recorder isn't null.
+	 */
+	public static void populate(World world, byte[] rom, int count, long seed, Recorder recorder) {
+		Random random = new Random(seed);
+
+		for (int id = 0; id < count; id++) {
+			Robot robot = (recorder == null) ? new Robot(id, rom) : new RecordedRobot(recorder, id, rom);
+			float x, y;
+
+			do {
+				x = World.CENTER + (random.nextFloat() - 0.5f) * World.CELL_SIZE * 8;
+				y = World.CENTER + (random.nextFloat() - 0.5f) * World.CELL_SIZE * 8;
+			} while (!world.canSpawnRobotAt(x, y));
+
+			robot.position(x, y);
+			robot.setFacing(random.nextFloat() * (float)(StrictMath.PI * 2));
+			world.addRobot(robot);
+		}
+	}
+}
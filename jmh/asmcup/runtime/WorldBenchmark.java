@@ -0,0 +1,34 @@
+package asmcup.runtime;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One frame of a world full of sample bots. The world is built again for
+ * every iteration so robots running out of battery don't skew later ones.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WorldBenchmark {
+	@Param({"1", "10", "100", "1000"})
+	public int robots;
+
+	private World world;
+
+	@Setup(Level.Iteration)
+	public void setup() {
+		world = new World(1);
+		SampleBot.populate(world, robots, 1);
+	}
+
+	@Benchmark
+	public World tick() {
+		world.tick();
+		return world;
+	}
+}
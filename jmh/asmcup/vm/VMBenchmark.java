@@ -0,0 +1,115 @@
+package asmcup.vm;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time per VM.tick for straight runs of one opcode family. PUSH and POP runs
+ * move the stack, so after each run it is put back with direct pop8/push8
+ * calls, and that is counted in their results. Setup checks that a run
+ * leaves the stack where it was, so it never grows into the code. Each
+ * family runs on the interpreter and on the pre-decoded engine.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(VMBenchmark.TICKS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VMBenchmark implements VMConsts {
+	public static final int TICKS = 32;
+
+	@Param({"FUNC", "PUSH", "POP", "BRANCH"})
+	public String family;
+
+	@Param({"false", "true"})
+	public boolean predecoded;
+
+	private VM vm;
+
+	@Setup
+	public void setup() {
+		byte[] ram = new byte[256];
+		int pc = 0;
+
+		switch (family) {
+		case "FUNC":
+			// Byte and float math that leaves the stack as it found it:
+			// +1 -1 0 +3 +4 -4 -3 0
+			int[] funcs = {F_C_3, F_ADD8, F_SHL, F_B2F, F_C_2F, F_MULF, F_F2B, F_NOT};
+
+			for (int i = 0; i < TICKS; i++) {
+				ram[pc++] = (byte)((funcs[i % funcs.length] << 2) | OP_FUNC);
+			}
+			break;
+		case "PUSH":
+			for (int i = 0; i < TICKS; i++) {
+				int magic = (i % 2 == 0) ? MAGIC_PUSH_BYTE_IMMEDIATE : MAGIC_PUSH_BYTE_MEMORY;
+				ram[pc++] = (byte)((magic << 2) | OP_PUSH);
+				ram[pc++] = (byte)0x80;
+			}
+			break;
+		case "POP":
+			for (int i = 0; i < TICKS; i++) {
+				ram[pc++] = (byte)((MAGIC_POP_BYTE << 2) | OP_POP);
+				ram[pc++] = (byte)(0x80 + i % 2);
+			}
+			break;
+		case "BRANCH":
+			// Each jump goes to the next one and the last back to the start
+			for (int i = 0; i < TICKS; i++) {
+				ram[pc] = (byte)((MAGIC_BRANCH_ALWAYS << 2) | OP_BRANCH);
+				ram[pc + 1] = (byte)((i == TICKS - 1) ? 0 : pc + 2);
+				pc += 2;
+			}
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown family " + family);
+		}
+
+		vm = new VM(ram);
+		vm.setPredecoded(predecoded);
+
+		if (family.equals("FUNC")) {
+			vm.push8(1);
+		} else if (family.equals("POP")) {
+			refill();
+		}
+
+		int sp = vm.getStackPointer();
+		tick();
+
+		if (vm.getStackPointer() != sp) {
+			throw new IllegalStateException(family + " run moved the stack from " + sp + " to " + vm.getStackPointer());
+		}
+	}
+
+	@Benchmark
+	public VM tick() {
+		for (int i = 0; i < TICKS; i++) {
+			vm.tick();
+		}
+
+		switch (family) {
+		case "PUSH":
+			for (int i = 0; i < TICKS; i++) {
+				vm.pop8();
+			}
+			break;
+		case "POP":
+			refill();
+			break;
+		}
+
+		vm.setProgramCounter(0);
+		return vm;
+	}
+
+	private void refill() {
+		for (int i = 0; i < TICKS; i++) {
+			vm.push8(i);
+		}
+	}
+}
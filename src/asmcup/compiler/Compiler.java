@@ -3,6 +3,7 @@ package asmcup.compiler;
 import java.util.*;
 
 import asmcup.vm.VMConsts;
+import asmcup.vm.VMFuncTable;
 
 public class Compiler implements VMConsts {
 	protected ArrayList<Statement> statements;
@@ -478,7 +479,7 @@ public class Compiler implements VMConsts {
 	}
 	
 	protected void reference(int op, int data, String s) {
-		statements.add(new Statement(currentLine) {
+		statements.add(new Statement(currentLine, s) {
 			public int measureImpl() {
 				return 2;
 			}
@@ -539,7 +540,7 @@ public class Compiler implements VMConsts {
 			throw new IllegalArgumentException("Cannot address a literal for relative instruction");
 		}
 		
-		statements.add(new Statement(currentLine) {
+		statements.add(new Statement(currentLine, s) {
 			public int measureImpl() {
 				return 1;
 			}
@@ -576,7 +577,7 @@ public class Compiler implements VMConsts {
 		return currentLine;
 	}
 	
-	private void rethrowWithLine(IllegalArgumentException e, int currentLine) {
+	protected void rethrowWithLine(IllegalArgumentException e, int currentLine) {
 		String messageWithLine =
 				String.format("%s on line %d", e.getMessage(), currentLine);
 		throw new IllegalArgumentException(messageWithLine, e);
@@ -590,10 +591,17 @@ public class Compiler implements VMConsts {
 	}
 	
 	protected abstract class Statement {
-		public final int line;
+		public int line;
+		// Label or address the statement refers to, if any
+		public final String symbol;
 		
 		public Statement(int line) {
+			this(line, null);
+		}
+		
+		public Statement(int line, String symbol) {
 			this.line = line;
+			this.symbol = symbol;
 		}
 		
 		public int measure() {
@@ -0,0 +1,194 @@
+package asmcup.compiler;
+
+import java.util.*;
+
+/**
+ * A compiler for source that changes a little at a time, like the editor's.
+ * It keeps the statements it parsed for every line and the program it
+ * compiled last. The next compile only parses the lines that differ from
+ * the last source, and only compiles again the lines that were edited,
+ * moved, or refer to a label whose address changed.
+ *
+ * The result and errors are the same as compiling the source from scratch.
+ */
+public class IncrementalCompiler extends Compiler {
+	protected final ArrayList<Line> lines = new ArrayList<>();
+	protected HashMap<String, Integer> lastLabels = new HashMap<>();
+	// Bytes the last program took, -1 when it has to be compiled in full
+	protected int lastSize = -1;
+	protected int linesParsed;
+	protected int linesCompiled;
+
+	public IncrementalCompiler() {
+		ram = new byte[256];
+	}
+
+	@Override
+	public byte[] compile(String[] source) {
+		linesParsed = 0;
+		linesCompiled = 0;
+		update(source);
+
+		for (int i=0; i < lines.size(); i++) {
+			Line line = lines.get(i);
+
+			if (line.error != null) {
+				currentLine = i + 1;
+				rethrowWithLine(line.error, currentLine);
+			}
+		}
+
+		try {
+			link();
+		} catch (IllegalArgumentException e) {
+			// Start over next time rather than trust a half written program
+			lastSize = -1;
+			throw e;
+		}
+
+		return ram.clone();
+	}
+
+	/**
+	 * Parses the lines between the ones that start and end both the old
+	 * and new source, and numbers the lines after them again.
+	 */
+	protected void update(String[] source) {
+		int count = lines.size();
+		int prefix = 0;
+		int suffix = 0;
+
+		while (prefix < count && prefix < source.length
+				&& lines.get(prefix).text.equals(source[prefix])) {
+			prefix++;
+		}
+
+		while (suffix < count - prefix && suffix < source.length - prefix
+				&& lines.get(count - 1 - suffix).text.equals(source[source.length - 1 - suffix])) {
+			suffix++;
+		}
+
+		ArrayList<Line> edited = new ArrayList<>();
+
+		for (int i = prefix; i < source.length - suffix; i++) {
+			edited.add(parse(source[i], i + 1));
+		}
+
+		lines.subList(prefix, count - suffix).clear();
+		lines.addAll(prefix, edited);
+
+		if (edited.size() != count - prefix - suffix) {
+			for (int i = prefix + edited.size(); i < lines.size(); i++) {
+				lines.get(i).renumber(i + 1);
+			}
+		}
+
+		currentLine = source.length;
+	}
+
+	protected Line parse(String text, int number) {
+		Line line = new Line(text);
+		statements = line.statements;
+		currentLine = number;
+		linesParsed++;
+
+		try {
+			parseLine(text);
+		} catch (IllegalArgumentException e) {
+			line.error = e;
+		}
+
+		statements = null;
+		return line;
+	}
+
+	protected void link() {
+		labels = new HashMap<>();
+		pc = 0;
+
+		for (Line line : lines) {
+			line.moved = (line.pc != pc);
+			line.pc = pc;
+
+			for (Statement statement : line.statements) {
+				pc += statement.measure();
+			}
+		}
+
+		int size = pc;
+		HashSet<String> changed = new HashSet<>();
+
+		for (Map.Entry<String, Integer> entry : labels.entrySet()) {
+			if (!entry.getValue().equals(lastLabels.get(entry.getKey()))) {
+				changed.add(entry.getKey());
+			}
+		}
+
+		for (String name : lastLabels.keySet()) {
+			if (!labels.containsKey(name)) {
+				changed.add(name);
+			}
+		}
+
+		// Past 256 bytes the program wraps around over itself, so the
+		// order lines are written in matters and all of them are
+		boolean full = (lastSize < 0 || lastSize > 256 || size > 256);
+
+		if (full) {
+			Arrays.fill(ram, (byte)0);
+		} else if (size < lastSize) {
+			Arrays.fill(ram, size, lastSize, (byte)0);
+		}
+
+		for (Line line : lines) {
+			if (full || line.dirty || line.moved || line.refersTo(changed)) {
+				pc = line.pc;
+				linesCompiled++;
+
+				for (Statement statement : line.statements) {
+					statement.compile();
+				}
+
+				line.dirty = false;
+			}
+		}
+
+		lastLabels = labels;
+		lastSize = size;
+		bytesUsed = size;
+		pc = 0;
+	}
+
+	protected class Line {
+		final String text;
+		final ArrayList<Statement> statements = new ArrayList<>();
+		IllegalArgumentException error;
+		int pc = -1;
+		boolean dirty = true;
+		boolean moved;
+
+		Line(String text) {
+			this.text = text;
+		}
+
+		void renumber(int number) {
+			for (Statement statement : statements) {
+				statement.line = number;
+			}
+		}
+
+		boolean refersTo(Set<String> changed) {
+			if (changed.isEmpty()) {
+				return false;
+			}
+
+			for (Statement statement : statements) {
+				if (statement.symbol != null && changed.contains(statement.symbol)) {
+					return true;
+				}
+			}
+
+			return false;
+		}
+	}
+}
@@ -2,12 +2,19 @@ package asmcup.compiler;
 
 import java.io.*;
 import java.nio.file.*;
+import java.util.Arrays;
 import java.util.List;
 
 public class Main {
 	public static void main(String[] args) throws IOException {
+		boolean optimize = args.length > 0 && args[0].equals("-O");
+
+		if (optimize) {
+			args = Arrays.copyOfRange(args, 1, args.length);
+		}
+
 		if (args.length < 2) {
-			System.err.printf("USAGE: asmcup-compile <in> <out>%n");
+			System.err.printf("USAGE: asmcup-compile [-O] <in> <out>%n");
 			System.exit(1);
 			return;
 		}
@@ -15,6 +22,13 @@ public class Main {
 		File inFile = new File(args[0]);
 		File outFile = new File(args[1]);
 		String[] lines = readLines(inFile.toPath());
+
+		if (optimize) {
+			Optimizer optimizer = new Optimizer();
+			lines = optimizer.optimize(lines);
+			optimizer.report(System.err);
+		}
+
 		FileOutputStream output = new FileOutputStream(outFile);
 
 		Compiler compiler = new Compiler();
@@ -0,0 +1,730 @@
+package asmcup.compiler;
+
+import java.io.PrintStream;
+import java.util.*;
+
+import asmcup.vm.VM;
+import asmcup.vm.VMConsts;
+import asmcup.vm.VMFuncTable;
+
+/**
+ * Rewrites assembly so it compiles to fewer bytes and runs in fewer cycles.
+ * It removes code that can't be reached, threads jumps that land on other
+ * jumps, and replaces short runs of stack instructions with a shorter
+ * equivalent: a constant they always push, or the shortest sequence of
+ * functions up to searchLength long that does the same.
+ *
+ * The optimizer works on source because only the source tells an address
+ * from a number. Rewritten code must only be reached through its labels,
+ * and instructions are equivalent when they leave the same stack, not the
+ * same bytes in the memory popped off it. Every replacement is proven: a
+ * run may read at most INPUT bytes of the stack below it, and both are run
+ * on every value of those bytes. Runs reading more, such as any taking a
+ * float off the stack, are left alone.
+ */
+public class Optimizer implements VMConsts {
+	// Longest run of instructions replaced at once
+	public int windowLength = 4;
+	// Longest sequence of functions the search tries
+	public int searchLength = 2;
+	protected final LinkedHashMap<String, Saving> savings = new LinkedHashMap<>();
+	protected HashMap<Long, Op[]> shortest;
+	protected int shortestLength = -1;
+
+	public String[] optimize(String[] source) {
+		ArrayList<Line> lines = new ArrayList<>();
+		savings.clear();
+
+		for (String text : source) {
+			lines.add(new Line(text));
+		}
+
+		for (int round = 0; round < 64; round++) {
+			boolean changed = removeDeadCode(lines);
+			changed |= threadJumps(lines);
+			changed |= search(lines);
+
+			if (!changed) {
+				break;
+			}
+		}
+
+		String[] optimized = new String[lines.size()];
+
+		for (int i=0; i < optimized.length; i++) {
+			optimized[i] = lines.get(i).text;
+		}
+
+		return optimized;
+	}
+
+	public Collection<Saving> getSavings() {
+		return savings.values();
+	}
+
+	/**
+	 * Writes the bytes and cycles saved in each function, the code from a
+	 * label whose address is pushed for jsr to the next one.
+	 */
+	public void report(PrintStream out) {
+		int bytes = 0, cycles = 0;
+
+		for (Saving saving : savings.values()) {
+			out.printf("%s %d bytes %d cycles%n", saving.function, saving.bytes, saving.cycles);
+			bytes += saving.bytes;
+			cycles += saving.cycles;
+		}
+
+		out.printf("total %d bytes %d cycles%n", bytes, cycles);
+	}
+
+	protected void save(List<Line> lines, int index, int bytes, int cycles) {
+		String function = "main";
+		HashSet<String> functions = new HashSet<>();
+
+		for (Line line : lines) {
+			if (line.cmd != null && line.cmd.equals("push8") && line.args.length == 1
+					&& line.args[0].startsWith("&")) {
+				functions.add(line.args[0].substring(1));
+			}
+		}
+
+		for (int i=0; i <= index && i < lines.size(); i++) {
+			for (String label : lines.get(i).labels) {
+				if (functions.contains(label)) {
+					function = label;
+				}
+			}
+		}
+
+		Saving saving = savings.computeIfAbsent(function, Saving::new);
+		saving.bytes += bytes;
+		saving.cycles += cycles;
+	}
+
+	/**
+	 * Removes instructions between an unconditional jump or ret and the
+	 * next label. Data is kept, it may be read from an address after it.
+	 */
+	protected boolean removeDeadCode(List<Line> lines) {
+		boolean dead = false, changed = false;
+
+		for (int i=0; i < lines.size(); i++) {
+			Line line = lines.get(i);
+
+			if (!line.labels.isEmpty()) {
+				dead = false;
+			}
+
+			if (dead && line.isCode() && line.labels.isEmpty()) {
+				save(lines, i, line.bytes, 0);
+				lines.remove(i--);
+				changed = true;
+				continue;
+			}
+
+			if (line.isCode() && (line.cmd.equals("jmp") || line.cmd.equals("ret"))) {
+				dead = true;
+			}
+		}
+
+		return changed;
+	}
+
+	/**
+	 * Points jumps at the end of a chain of jumps, and removes jumps to the
+	 * instruction right after them.
+	 */
+	protected boolean threadJumps(List<Line> lines) {
+		boolean changed = false;
+
+		for (int i=0; i < lines.size(); i++) {
+			Line line = lines.get(i);
+			String target = line.target();
+
+			if (target == null) {
+				continue;
+			}
+
+			String end = target;
+			HashSet<String> seen = new HashSet<>();
+			Line next;
+
+			while (seen.add(end) && (next = instructionAt(lines, end)) != null
+					&& next.cmd.equals("jmp") && next.target() != null) {
+				end = next.target();
+			}
+
+			if (!end.equals(target)) {
+				lines.set(i, line.retarget(end));
+				save(lines, i, 0, 1);
+				changed = true;
+				line = lines.get(i);
+			}
+
+			if (line.cmd.equals("jmp") && instructionAt(lines, end) != null
+					&& instructionAt(lines, end) == nextInstruction(lines, i)) {
+				save(lines, i, line.bytes, 1);
+				changed = true;
+
+				if (line.labels.isEmpty()) {
+					lines.remove(i--);
+				} else {
+					lines.set(i, line.withoutCode());
+				}
+			}
+		}
+
+		return changed;
+	}
+
+	protected static Line instructionAt(List<Line> lines, String label) {
+		for (int i=0; i < lines.size(); i++) {
+			if (lines.get(i).labels.contains(label)) {
+				return nextInstruction(lines, i - 1);
+			}
+		}
+
+		return null;
+	}
+
+	protected static Line nextInstruction(List<Line> lines, int index) {
+		for (int i = index + 1; i < lines.size(); i++) {
+			if (lines.get(i).cmd != null) {
+				return lines.get(i);
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Replaces the first run of stack instructions that has a cheaper
+	 * equivalent, longest runs first.
+	 */
+	protected boolean search(List<Line> lines) {
+		for (int start=0; start < lines.size(); start++) {
+			for (int length = windowLength; length > 0; length--) {
+				int[] window = window(lines, start, length);
+
+				if (window == null) {
+					continue;
+				}
+
+				Op[] ops = new Op[length];
+
+				for (int i=0; i < length; i++) {
+					ops[i] = lines.get(window[i]).op;
+				}
+
+				Op[] better = findBetter(ops);
+
+				if (better != null) {
+					replace(lines, window, ops, better);
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns the lines of a run of stack instructions starting at start,
+	 * or null when the run is shorter or something jumps into the middle.
+	 */
+	protected static int[] window(List<Line> lines, int start, int length) {
+		int[] window = new int[length];
+		int n = 0;
+
+		for (int i = start; i < lines.size() && n < length; i++) {
+			Line line = lines.get(i);
+
+			if (i > start && !line.labels.isEmpty()) {
+				return null;
+			}
+
+			if (line.op != null) {
+				window[n++] = i;
+			} else if (line.cmd != null || i == start) {
+				return null;
+			}
+		}
+
+		return (n == length) ? window : null;
+	}
+
+	protected void replace(List<Line> lines, int[] window, Op[] ops, Op[] better) {
+		List<String> labels = lines.get(window[0]).labels;
+		save(lines, window[0], bytes(ops) - bytes(better), ops.length - better.length);
+
+		for (int i = window.length - 1; i > 0; i--) {
+			lines.remove(window[i]);
+		}
+
+		lines.remove(window[0]);
+
+		if (better.length == 0) {
+			if (!labels.isEmpty()) {
+				lines.add(window[0], new Line(Line.prefix(labels)));
+			}
+			return;
+		}
+
+		for (int i = better.length - 1; i >= 0; i--) {
+			String prefix = (i == 0) ? Line.prefix(labels) : "";
+			lines.add(window[0], new Line(prefix + "\t" + better[i].text));
+		}
+	}
+
+	protected Op[] findBetter(Op[] ops) {
+		Op[] constant = constant(ops);
+
+		if (constant != null) {
+			return constant;
+		}
+
+		if (shortest == null || shortestLength != searchLength) {
+			shortest = enumerate(searchLength);
+			shortestLength = searchLength;
+		}
+
+		Long print = fingerprint(ops);
+		Op[] found = (print != null) ? shortest.get(print) : null;
+
+		if (found != null && cheaper(found, ops) && equivalent(found, ops)) {
+			return found;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Maps the fingerprint of every sequence of functions up to the length
+	 * to the shortest sequence with it. The fingerprint only finds
+	 * candidates, each is proven before it replaces anything.
+	 */
+	protected static HashMap<Long, Op[]> enumerate(int length) {
+		ArrayList<Op> alphabet = new ArrayList<>();
+
+		for (int func = 0; func < 64; func++) {
+			if (!UNSEARCHED.contains(func)) {
+				alphabet.add(new Op(func));
+			}
+		}
+
+		HashMap<Long, Op[]> shortest = new HashMap<>();
+		ArrayList<Op[]> current = new ArrayList<>();
+		current.add(new Op[0]);
+
+		for (int n = 0; n <= length; n++) {
+			ArrayList<Op[]> longer = new ArrayList<>();
+
+			for (Op[] ops : current) {
+				Long print = fingerprint(ops);
+
+				if (print != null) {
+					shortest.putIfAbsent(print, ops);
+				}
+
+				if (n < length) {
+					for (Op op : alphabet) {
+						Op[] next = Arrays.copyOf(ops, n + 1);
+						next[n] = op;
+						longer.add(next);
+					}
+				}
+			}
+
+			current = longer;
+		}
+
+		return shortest;
+	}
+
+	/**
+	 * Folds instructions that only work on what they push themselves into
+	 * one constant function or push of the byte or float they leave, or
+	 * into nothing when they leave nothing. Instructions reading further
+	 * down the stack depend on what is there when the robot runs and are
+	 * left alone.
+	 */
+	protected static Op[] constant(Op[] ops) {
+		Probe vm = execute(ops);
+
+		if (vm.lowest < DEPTH) {
+			return null;
+		}
+
+		Op[] folded = push(vm, vm.depth() - DEPTH);
+
+		if (folded == null || !cheaper(folded, ops) || !sameStack(execute(folded), vm)) {
+			return null;
+		}
+
+		return folded;
+	}
+
+	/**
+	 * Returns the cheapest instruction pushing the bytes on top of the stack.
+	 */
+	protected static Op[] push(VM vm, int pushed) {
+		if (pushed == 0) {
+			return new Op[0];
+		}
+
+		for (int func = F_C_0; func <= F_C_INF; func++) {
+			Op[] single = { new Op(func) };
+
+			if (sameStack(execute(single), vm)) {
+				return single;
+			}
+		}
+
+		if (pushed == 1) {
+			return compile("push8 #" + vm.peek8());
+		}
+
+		if (pushed == 4 && !Float.isNaN(vm.peekFloat())) {
+			return compile("pushf #" + Float.toString(vm.peekFloat()));
+		}
+
+		return null;
+	}
+
+	protected static boolean cheaper(Op[] a, Op[] b) {
+		int bytesA = bytes(a), bytesB = bytes(b);
+		return bytesA < bytesB || (bytesA == bytesB && a.length < b.length);
+	}
+
+	protected static int bytes(Op[] ops) {
+		int bytes = 0;
+
+		for (Op op : ops) {
+			bytes += op.bytes;
+		}
+
+		return bytes;
+	}
+
+	/**
+	 * Proves two runs of instructions leave the same stack, by running both
+	 * on every value of the stack bytes they read. False when either reads
+	 * more than INPUT bytes for any of those values.
+	 */
+	protected static boolean equivalent(Op[] a, Op[] b) {
+		int input = StrictMath.max(reads(a), reads(b));
+
+		if (input > INPUT) {
+			return false;
+		}
+
+		for (int value = 0; value < (1 << (input * 8)); value++) {
+			Probe x = execute(a, value, input);
+			Probe y = execute(b, value, input);
+
+			if (x.lowest < DEPTH - input || y.lowest < DEPTH - input || !sameStack(x, y)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	// Stack bytes below them the instructions read when those are all zero
+	protected static int reads(Op[] ops) {
+		return StrictMath.max(0, DEPTH - execute(ops).lowest);
+	}
+
+	/**
+	 * Hashes what the instructions leave on a few stacks, or returns null
+	 * when they read more than INPUT bytes of them.
+	 */
+	protected static Long fingerprint(Op[] ops) {
+		long hash = 1;
+
+		for (int value : PROBES) {
+			Probe vm = execute(ops, value, INPUT);
+
+			if (vm.lowest < DEPTH - INPUT) {
+				return null;
+			}
+
+			hash = hash * 31 + vm.getStackPointer();
+
+			for (int addr = vm.getStackPointer() + 1; addr <= 0xFF; addr++) {
+				hash = hash * 31 + vm.read8(addr);
+			}
+		}
+
+		return hash;
+	}
+
+	protected static boolean sameStack(VM a, VM b) {
+		if (a.getStackPointer() != b.getStackPointer()) {
+			return false;
+		}
+
+		for (int addr = a.getStackPointer() + 1; addr <= 0xFF; addr++) {
+			if (a.read8(addr) != b.read8(addr)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	protected static Probe execute(Op[] ops) {
+		return execute(ops, 0, 0);
+	}
+
+	/**
+	 * Runs the instructions on a stack DEPTH bytes deep, noting the lowest
+	 * byte of it they read. The top input bytes hold the value, lowest byte
+	 * on top, and the rest are zero.
+	 */
+	protected static Probe execute(Op[] ops, int value, int input) {
+		Probe vm = new Probe();
+
+		for (int i=0; i < DEPTH; i++) {
+			vm.push8((i < DEPTH - input) ? 0 : value >> ((DEPTH - 1 - i) * 8));
+		}
+
+		vm.lowest = Integer.MAX_VALUE;
+
+		for (Op op : ops) {
+			op.execute(vm);
+		}
+
+		return vm;
+	}
+
+	/**
+	 * Compiles one stack instruction the way the compiler would, or returns
+	 * null when it isn't one.
+	 */
+	protected static Op[] compile(String code) {
+		try {
+			Compiler compiler = new Compiler();
+			byte[] ram = compiler.compile(new String[] { code });
+			int bits = ram[0] & 0xFF;
+			int data = bits >> 2;
+
+			switch (bits & 0b11) {
+			case OP_FUNC:
+				if (UNMOVABLE.contains(data)) {
+					return null;
+				}
+				return new Op[] { new Op(data) };
+			case OP_PUSH:
+				if (data == MAGIC_PUSH_BYTE_IMMEDIATE) {
+					return new Op[] { new Op(ram[1] & 0xFF, code) };
+				}
+				if (data == MAGIC_PUSH_FLOAT_IMMEDIATE) {
+					int value = (ram[1] & 0xFF) | ((ram[2] & 0xFF) << 8)
+						| ((ram[3] & 0xFF) << 16) | ((ram[4] & 0xFF) << 24);
+					return new Op[] { new Op(value, code, 5) };
+				}
+				return null;
+			default:
+				return null;
+			}
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	public static class Saving {
+		public final String function;
+		public int bytes;
+		public int cycles;
+
+		public Saving(String function) {
+			this.function = function;
+		}
+	}
+
+	/**
+	 * A VM that notes the lowest stack byte popped or peeked, counted from
+	 * the bottom of the stack.
+	 */
+	protected static class Probe extends VM {
+		int lowest = Integer.MAX_VALUE;
+
+		Probe() {
+			super(new byte[256]);
+		}
+
+		int depth() {
+			return 0xFF - getStackPointer();
+		}
+
+		@Override
+		public int pop8() {
+			int value = super.pop8();
+			lowest = StrictMath.min(lowest, depth());
+			return value;
+		}
+
+		@Override
+		public int peek8(int r) {
+			lowest = StrictMath.min(lowest, depth() - r - 1);
+			return super.peek8(r);
+		}
+	}
+
+	/**
+	 * An instruction that only works on the stack: a function, or a push of
+	 * an immediate byte or float.
+	 */
+	protected static class Op {
+		final int func;
+		final int value;
+		final int bytes;
+		final String text;
+
+		Op(int func) {
+			this.func = func;
+			this.value = 0;
+			this.bytes = 1;
+			this.text = VMFuncTable.unparse(func);
+		}
+
+		Op(int value, String text) {
+			this(value, text, 2);
+		}
+
+		Op(int value, String text, int bytes) {
+			this.func = -1;
+			this.value = value;
+			this.bytes = bytes;
+			this.text = text;
+		}
+
+		void execute(VM vm) {
+			if (func >= 0) {
+				vm.op_func(func);
+			} else if (bytes == 2) {
+				vm.push8(value);
+			} else {
+				vm.push32(value);
+			}
+		}
+	}
+
+	protected static class Line {
+		final String text;
+		final List<String> labels = new ArrayList<>();
+		// Null for lines without an instruction
+		String cmd;
+		String[] args = Compiler.EMPTY_ARGS;
+		// Set when the instruction only works on the stack
+		Op op;
+		int bytes;
+
+		Line(String text) {
+			this.text = text;
+			String code = Compiler.parseComments(text.trim());
+			int pos;
+
+			while ((pos = code.indexOf(':')) > 0 && Compiler.isSymbol(code.substring(0, pos).trim())) {
+				labels.add(code.substring(0, pos).trim());
+				code = code.substring(pos + 1).trim();
+			}
+
+			if (code.isEmpty()) {
+				return;
+			}
+
+			String[] parts = code.split("\\s+", 2);
+			cmd = parts[0].toLowerCase();
+			args = Compiler.parseArgs(parts.length > 1 ? parts[1] : "");
+			bytes = measure(code);
+
+			if (bytes < 0) {
+				// Leave what doesn't compile for the compiler to report
+				cmd = "?";
+				return;
+			}
+
+			Op[] ops = isStack() ? compile(code) : null;
+			op = (ops != null) ? ops[0] : null;
+		}
+
+		boolean isStack() {
+			if (cmd.equals("push8") || cmd.equals("pushf")) {
+				return args.length == 1 && Compiler.isLiteral(args[0]);
+			}
+
+			return VMFuncTable.exists(cmd) && args.length == 0;
+		}
+
+		boolean isCode() {
+			return cmd != null && !cmd.equals("?") && !cmd.startsWith("db");
+		}
+
+		/**
+		 * Returns the label a jmp or jnz goes to directly, or null.
+		 */
+		String target() {
+			if (cmd == null || args.length != 1 || !Compiler.isSymbol(args[0])) {
+				return null;
+			}
+
+			switch (cmd) {
+			case "jmp":
+			case "jnz":
+			case "jne":
+				return args[0];
+			default:
+				return null;
+			}
+		}
+
+		Line retarget(String label) {
+			return new Line(prefix(labels) + "\t" + cmd + " " + label);
+		}
+
+		Line withoutCode() {
+			return new Line(prefix(labels));
+		}
+
+		static String prefix(List<String> labels) {
+			StringBuilder prefix = new StringBuilder();
+
+			for (String label : labels) {
+				prefix.append(label).append(": ");
+			}
+
+			return prefix.toString().trim();
+		}
+
+		static int measure(String code) {
+			try {
+				Compiler compiler = new Compiler();
+				compiler.init();
+				compiler.parseLine(code);
+				int bytes = 0;
+
+				for (Compiler.Statement statement : compiler.statements) {
+					bytes += statement.measure();
+				}
+
+				return bytes;
+			} catch (IllegalArgumentException e) {
+				return -1;
+			}
+		}
+	}
+
+	// Bytes of stack below the instructions
+	protected static final int DEPTH = 64;
+	// Most bytes below it a run may read to be proven, every value is tried
+	protected static final int INPUT = 2;
+	// Values of those bytes a fingerprint runs on
+	protected static final int[] PROBES = {0x0000, 0x0180, 0xFF7F, 0x3C05};
+	// Functions with effects besides the stack
+	protected static final Set<Integer> UNMOVABLE = new HashSet<>(Arrays.asList(F_JSR, F_RET, F_IO));
+	protected static final Set<Integer> UNSEARCHED = new HashSet<>(Arrays.asList(
+		F_JSR, F_RET, F_IO, F_NOP, F_NOP61, F_NOP62));
+}
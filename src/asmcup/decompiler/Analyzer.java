@@ -0,0 +1,709 @@
+package asmcup.decompiler;
+
+import java.io.*;
+import java.util.*;
+
+import asmcup.runtime.Robot;
+import asmcup.vm.VM;
+
+/**
+ * Works out what a ROM costs to run without running it. It walks the
+ * program from address 0 with the decompiler, splits it into basic blocks
+ * and follows the stack depth through them, flagging loops that push more
+ * than they pop and so grow the stack down into the code.
+ *
+ * A robot runs overclock + 1 instructions every frame whatever they are, so
+ * the cost of a program is in how many frames a loop takes at an overclock
+ * and how long the battery lasts there.
+ *
+ * A ret is taken to go back to every call of its subroutine, and the
+ * subroutine to only pop its return address. Jumps to computed addresses
+ * can't be followed, those are reported instead.
+ */
+public class Analyzer extends Decompiler {
+	protected final PrintStream out;
+	protected byte[] ram;
+	// Instructions reached, by address
+	protected final TreeMap<Integer, Instruction> instructions = new TreeMap<>();
+	protected final TreeMap<Integer, Block> blocks = new TreeMap<>();
+	protected final List<Loop> loops = new ArrayList<>();
+	protected final List<String> warnings = new ArrayList<>();
+	protected final TreeSet<Integer> overclocks = new TreeSet<>();
+	protected boolean lazer;
+	// Deepest the stack gets, -1 when a loop grows it without limit
+	protected int maxDepth;
+	protected int end;
+
+	public Analyzer() {
+		this(System.out);
+	}
+
+	public Analyzer(PrintStream out) {
+		super(new PrintStream(new ByteArrayOutputStream()));
+		this.out = out;
+	}
+
+	@Override
+	public void dump(int pc, String s) {
+		// Only the size of each instruction is needed
+	}
+
+	public void analyze(byte[] ram) {
+		this.ram = ram;
+		instructions.clear();
+		blocks.clear();
+		loops.clear();
+		warnings.clear();
+		overclocks.clear();
+		lazer = false;
+
+		walk();
+		split();
+		depths();
+		findLoops();
+		report();
+	}
+
+	protected Instruction decode(int pc) {
+		int size = decompileCommand(ram, pc);
+		Instruction instruction = new Instruction(pc, size, read8(ram, pc));
+		int data = instruction.bits >> 2;
+
+		switch (instruction.bits & 0b11) {
+		case OP_FUNC:
+			instruction.delta = FUNC_DELTAS[data];
+			break;
+		case OP_PUSH:
+			instruction.delta = (data == MAGIC_PUSH_FLOAT_IMMEDIATE || data == MAGIC_PUSH_FLOAT_MEMORY) ? 4 : 1;
+			break;
+		case OP_POP:
+			instruction.delta = (data == MAGIC_POP_FLOAT || data == MAGIC_POP_FLOAT_INDIRECT) ? -4 : -1;
+			break;
+		case OP_BRANCH:
+			instruction.delta = (data == MAGIC_BRANCH_ALWAYS || data == MAGIC_BRANCH_INDIRECT) ? 0 : -1;
+			break;
+		}
+
+		return instruction;
+	}
+
+	/**
+	 * Decodes every instruction reachable from address 0 and links it to
+	 * the instructions that can run after it. Subroutines are found from
+	 * the constant address pushed before a jsr, so this goes on until no
+	 * more of those turn up. Their rets then lead back after each call.
+	 */
+	protected void walk() {
+		ArrayDeque<Integer> pending = new ArrayDeque<>();
+		HashSet<Instruction> calls = new HashSet<>();
+		pending.add(0);
+
+		while (!pending.isEmpty()) {
+			while (!pending.isEmpty()) {
+				int pc = pending.poll();
+
+				if (!instructions.containsKey(pc)) {
+					Instruction instruction = decode(pc);
+					instructions.put(pc, instruction);
+					successors(instruction);
+					pending.addAll(instruction.next);
+				}
+			}
+
+			link();
+
+			for (Instruction instruction : instructions.values()) {
+				Integer target;
+
+				if (isFunc(instruction, F_JSR) && !calls.contains(instruction)
+						&& (target = pushedBefore(instruction, 0)) != null) {
+					calls.add(instruction);
+					instruction.returnTo = instruction.next.remove(0);
+					instruction.jump(target);
+					pending.add(target);
+				}
+			}
+		}
+
+		for (Instruction call : calls) {
+			for (Instruction ret : returns(call.next.get(0))) {
+				if (!ret.next.contains(call.returnTo)) {
+					ret.next.add(call.returnTo);
+				}
+			}
+		}
+
+		link();
+
+		for (Instruction instruction : instructions.values()) {
+			if (isFunc(instruction, F_JSR) && !calls.contains(instruction)) {
+				warnings.add(String.format("L%02x: calls a computed address", instruction.pc));
+			} else if (isFunc(instruction, F_IO)) {
+				io(instruction, pushedBefore(instruction, 0));
+			}
+		}
+
+		end = 0;
+
+		for (Instruction instruction : instructions.values()) {
+			end = StrictMath.max(end, instruction.pc + instruction.size - 1);
+		}
+	}
+
+	/**
+	 * Links each instruction to the one before it, where that is the only
+	 * way to get there.
+	 */
+	protected void link() {
+		HashSet<Integer> targets = new HashSet<>();
+
+		for (Instruction instruction : instructions.values()) {
+			targets.addAll(instruction.targets);
+			instruction.previous = null;
+		}
+
+		for (Instruction instruction : instructions.values()) {
+			int next = (instruction.pc + instruction.size) & 0xFF;
+
+			if (instruction.next.contains(next) && !targets.contains(next)) {
+				instructions.get(next).previous = instruction;
+			}
+		}
+	}
+
+	/**
+	 * Finds the rets a subroutine can return from, stepping over the calls
+	 * it makes.
+	 */
+	protected List<Instruction> returns(int start) {
+		List<Instruction> returns = new ArrayList<>();
+		HashSet<Integer> seen = new HashSet<>();
+		ArrayDeque<Integer> pending = new ArrayDeque<>();
+		pending.add(start);
+
+		while (!pending.isEmpty()) {
+			Instruction instruction = instructions.get(pending.poll());
+
+			if (!seen.add(instruction.pc)) {
+				continue;
+			}
+
+			if (isFunc(instruction, F_RET)) {
+				returns.add(instruction);
+			} else if (instruction.returnTo != null) {
+				pending.add(instruction.returnTo);
+			} else {
+				pending.addAll(instruction.next);
+			}
+		}
+
+		return returns;
+	}
+
+	protected static boolean isFunc(Instruction instruction, int func) {
+		return instruction.bits == ((func << 2) | OP_FUNC);
+	}
+
+	protected void successors(Instruction instruction) {
+		int pc = instruction.pc;
+		int data = instruction.bits >> 2;
+		int next = (pc + instruction.size) & 0xFF;
+		int relative = (pc + (data - 32) + 1) & 0xFF;
+
+		switch (instruction.bits & 0b11) {
+		case OP_BRANCH:
+			switch (data) {
+			case MAGIC_BRANCH_ALWAYS:
+				instruction.jump(read8(ram, pc + 1));
+				break;
+			case MAGIC_BRANCH_IMMEDIATE:
+				instruction.jump(read8(ram, pc + 1));
+				instruction.next.add(next);
+				break;
+			case MAGIC_BRANCH_INDIRECT:
+				warnings.add(String.format("L%02x: jumps to an address read from memory", pc));
+				break;
+			default:
+				instruction.jump(relative);
+				instruction.next.add(next);
+				break;
+			}
+			return;
+		case OP_FUNC:
+			if (data == F_RET) {
+				return;
+			}
+			break;
+		}
+
+		instruction.next.add(next);
+	}
+
+	/**
+	 * Returns the byte pushed as a constant by the instruction before this
+	 * one, skipping back over the given number of them, or null.
+	 */
+	protected Integer pushedBefore(Instruction instruction, int skip) {
+		for (int i = 0; i <= skip; i++) {
+			instruction = instruction.previous;
+
+			if (instruction == null) {
+				return null;
+			}
+		}
+
+		int data = instruction.bits >> 2;
+
+		switch (instruction.bits & 0b11) {
+		case OP_PUSH:
+			return (data == MAGIC_PUSH_BYTE_IMMEDIATE) ? read8(ram, instruction.pc + 1) : null;
+		case OP_FUNC:
+			if (data >= F_C_0 && data <= F_C_4) {
+				return data - F_C_0;
+			}
+			return (data == F_C_255) ? 255 : null;
+		default:
+			return null;
+		}
+	}
+
+	protected void io(Instruction instruction, Integer port) {
+		if (port == null) {
+			warnings.add(String.format("L%02x: io on a computed port", instruction.pc));
+			instruction.delta = -1;
+			return;
+		}
+
+		instruction.delta = -1 + IO_DELTAS.getOrDefault(port, 0);
+
+		if (port == Robot.IO_OVERCLOCK) {
+			Integer value = pushedBefore(instruction, 1);
+
+			if (value != null) {
+				overclocks.add(StrictMath.min(value, Robot.OVERCLOCK_MAX));
+			}
+		} else if (port == Robot.IO_LAZER) {
+			lazer = true;
+		}
+	}
+
+	/**
+	 * Splits the instructions into blocks that are only entered at the top
+	 * and only leave at the bottom.
+	 */
+	protected void split() {
+		TreeSet<Integer> leaders = new TreeSet<>();
+		leaders.add(0);
+
+		for (Instruction instruction : instructions.values()) {
+			if (instruction.isControl()) {
+				leaders.addAll(instruction.next);
+			}
+
+			leaders.addAll(instruction.targets);
+		}
+
+		for (int leader : leaders) {
+			Block block = new Block(leader);
+			Instruction instruction = instructions.get(leader);
+			int depth = 0;
+
+			while (instruction != null) {
+				block.instructions.add(instruction);
+				depth += instruction.delta;
+				block.peak = StrictMath.max(block.peak, depth);
+
+				if (instruction.isControl() || instruction.next.size() != 1
+						|| leaders.contains(instruction.next.get(0))) {
+					block.next.addAll(instruction.next);
+					break;
+				}
+
+				instruction = instructions.get(instruction.next.get(0));
+			}
+
+			block.delta = depth;
+			blocks.put(leader, block);
+		}
+	}
+
+	/**
+	 * Finds the deepest the stack gets on entering each block. Where that
+	 * is still growing after every block had a chance to pass it on, a loop
+	 * pushes more than it pops.
+	 */
+	protected void depths() {
+		for (Block block : blocks.values()) {
+			block.depth = Integer.MIN_VALUE;
+		}
+
+		blocks.get(0).depth = 0;
+		HashSet<Block> growing = new HashSet<>();
+
+		for (int round = 0; round <= blocks.size(); round++) {
+			growing.clear();
+
+			for (Block block : blocks.values()) {
+				if (block.depth == Integer.MIN_VALUE) {
+					continue;
+				}
+
+				for (int start : block.next) {
+					Block next = blocks.get(start);
+					int depth = block.depth + block.delta;
+
+					if (next != null && depth > next.depth) {
+						next.depth = depth;
+						growing.add(next);
+					}
+				}
+			}
+
+			if (growing.isEmpty()) {
+				break;
+			}
+		}
+
+		for (Block block : growing) {
+			block.grows = true;
+		}
+
+		maxDepth = 0;
+
+		for (Block block : blocks.values()) {
+			if (block.depth != Integer.MIN_VALUE) {
+				maxDepth = StrictMath.max(maxDepth, block.depth + block.peak);
+			}
+		}
+
+		if (!growing.isEmpty()) {
+			maxDepth = -1;
+		} else if (maxDepth > 0xFF - end) {
+			warnings.add(String.format("stack can reach %d bytes, overwriting code from L%02x",
+				maxDepth, 0x100 - maxDepth));
+		}
+	}
+
+	/**
+	 * Finds the loops, the blocks that can reach themselves, and how many
+	 * instructions one time around takes.
+	 */
+	protected void findLoops() {
+		for (List<Block> component : components()) {
+			Block header = component.get(0);
+			HashSet<Block> members = new HashSet<>(component);
+			boolean cycle = component.size() > 1 || header.next.contains(header.start);
+
+			if (!cycle) {
+				continue;
+			}
+
+			Loop loop = new Loop(header);
+
+			for (Block block : component) {
+				loop.worst += block.instructions.size();
+				loop.grows |= block.grows;
+			}
+
+			loop.typical = shortestCycle(header, members);
+			loops.add(loop);
+
+			if (loop.grows) {
+				warnings.add(String.format("L%02x: loop pushes more than it pops,"
+					+ " the stack grows into the code", header.start));
+			}
+		}
+	}
+
+	/**
+	 * Tarjan's strongly connected components, each starting with the
+	 * block at the lowest address.
+	 */
+	protected List<List<Block>> components() {
+		List<List<Block>> components = new ArrayList<>();
+		HashMap<Block, Integer> index = new HashMap<>();
+		HashMap<Block, Integer> low = new HashMap<>();
+		ArrayDeque<Block> stack = new ArrayDeque<>();
+		HashSet<Block> onStack = new HashSet<>();
+
+		for (Block root : blocks.values()) {
+			if (!index.containsKey(root)) {
+				connect(root, index, low, stack, onStack, components);
+			}
+		}
+
+		for (List<Block> component : components) {
+			component.sort(Comparator.comparingInt(b -> b.start));
+		}
+
+		components.sort(Comparator.comparingInt(c -> c.get(0).start));
+		return components;
+	}
+
+	private void connect(Block block, HashMap<Block, Integer> index, HashMap<Block, Integer> low,
+			ArrayDeque<Block> stack, HashSet<Block> onStack, List<List<Block>> components) {
+		index.put(block, index.size());
+		low.put(block, index.get(block));
+		stack.push(block);
+		onStack.add(block);
+
+		for (int start : block.next) {
+			Block next = blocks.get(start);
+
+			if (next == null) {
+				continue;
+			}
+
+			if (!index.containsKey(next)) {
+				connect(next, index, low, stack, onStack, components);
+				low.put(block, StrictMath.min(low.get(block), low.get(next)));
+			} else if (onStack.contains(next)) {
+				low.put(block, StrictMath.min(low.get(block), index.get(next)));
+			}
+		}
+
+		if (low.get(block).equals(index.get(block))) {
+			List<Block> component = new ArrayList<>();
+			Block member;
+
+			do {
+				member = stack.pop();
+				onStack.remove(member);
+				component.add(member);
+			} while (member != block);
+
+			components.add(component);
+		}
+	}
+
+	protected int shortestCycle(Block header, Set<Block> members) {
+		HashMap<Block, Integer> distance = new HashMap<>();
+		PriorityQueue<Block> queue = new PriorityQueue<>(Comparator.comparingInt(distance::get));
+		int best = Integer.MAX_VALUE;
+		distance.put(header, header.instructions.size());
+		queue.add(header);
+
+		while (!queue.isEmpty()) {
+			Block block = queue.poll();
+			int d = distance.get(block);
+
+			for (int start : block.next) {
+				Block next = blocks.get(start);
+
+				if (next == header) {
+					best = StrictMath.min(best, d);
+				} else if (members.contains(next)) {
+					int nd = d + next.instructions.size();
+
+					if (nd < distance.getOrDefault(next, Integer.MAX_VALUE)) {
+						queue.remove(next);
+						distance.put(next, nd);
+						queue.add(next);
+					}
+				}
+			}
+		}
+
+		return best;
+	}
+
+	public void report() {
+		out.printf("%d instructions in %d blocks, code ends at L%02x%n",
+			instructions.size(), blocks.size(), end);
+		out.printf("stack depth %s%n", (maxDepth < 0) ? "unbounded" : maxDepth + " bytes");
+
+		for (Block block : blocks.values()) {
+			StringBuilder next = new StringBuilder();
+
+			for (int start : block.next) {
+				next.append(String.format(" L%02x", start));
+			}
+
+			out.printf("block L%02x: %d cycles, stack %+d ->%s%n",
+				block.start, block.instructions.size(), block.delta,
+				next.length() == 0 ? " none" : next.toString());
+		}
+
+		for (Loop loop : loops) {
+			out.printf("loop L%02x: %d to %d cycles per iteration%s%n", loop.header.start,
+				loop.typical, loop.worst, loop.grows ? ", stack grows" : "");
+		}
+
+		for (String warning : warnings) {
+			out.printf("warning %s%n", warning);
+		}
+
+		TreeSet<Integer> settings = new TreeSet<>(Arrays.asList(0, 10, 25, 50, Robot.OVERCLOCK_MAX));
+		settings.addAll(overclocks);
+		Loop main = mainLoop();
+		out.printf("overclock cycles/frame battery/frame frames/battery%s%n",
+			main == null ? "" : String.format(" frames/loop L%02x", main.header.start));
+
+		for (int overclock : settings) {
+			int cycles = overclock + 1;
+			int battery = batteryPerFrame(overclock);
+			out.printf("%d%s %d %d %d", overclock, overclocks.contains(overclock) ? "*" : "",
+				cycles, battery, Robot.BATTERY_MAX / battery);
+
+			if (main != null) {
+				out.printf(" %d-%d", framesFor(main.typical, cycles), framesFor(main.worst, cycles));
+			}
+
+			out.printf("%n");
+		}
+	}
+
+	/**
+	 * Returns the most battery a frame at the overclock uses: a unit per
+	 * instruction, and a lazer at full range when the program uses it.
+	 */
+	public int batteryPerFrame(int overclock) {
+		int battery = overclock + 1;
+
+		if (lazer) {
+			int steps = (Robot.LAZER_RANGE + Robot.RAY_INTERVAL - 1) / Robot.RAY_INTERVAL;
+			battery += Robot.LAZER_BATTERY_COST * StrictMath.min(steps, Robot.RAY_STEPS);
+		}
+
+		return battery;
+	}
+
+	protected static int framesFor(int cycles, int perFrame) {
+		return (cycles + perFrame - 1) / perFrame;
+	}
+
+	/**
+	 * The loop with the most instructions, most programs spend their life
+	 * in it.
+	 */
+	protected Loop mainLoop() {
+		Loop main = null;
+
+		for (Loop loop : loops) {
+			if (main == null || loop.worst > main.worst) {
+				main = loop;
+			}
+		}
+
+		return main;
+	}
+
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	public List<Loop> getLoops() {
+		return loops;
+	}
+
+	public List<String> getWarnings() {
+		return warnings;
+	}
+
+	public Collection<Block> getBlocks() {
+		return blocks.values();
+	}
+
+	public Set<Integer> getOverclocks() {
+		return overclocks;
+	}
+
+	protected static class Instruction {
+		final int pc;
+		final int size;
+		final int bits;
+		// Bytes the instruction leaves on the stack, negative when it pops
+		int delta;
+		final List<Integer> next = new ArrayList<>();
+		final List<Integer> targets = new ArrayList<>();
+		// Where a call to a known subroutine carries on once it returns
+		Integer returnTo;
+		// The instruction that runs right before this one, when nothing
+		// else jumps here
+		Instruction previous;
+
+		Instruction(int pc, int size, int bits) {
+			this.pc = pc;
+			this.size = size;
+			this.bits = bits;
+		}
+
+		void jump(int target) {
+			targets.add(target & 0xFF);
+			next.add(target & 0xFF);
+		}
+
+		boolean isControl() {
+			return (bits & 0b11) == OP_BRANCH || (bits & 0b11) == OP_FUNC
+				&& ((bits >> 2) == F_JSR || (bits >> 2) == F_RET);
+		}
+	}
+
+	public static class Block {
+		public final int start;
+		protected final List<Instruction> instructions = new ArrayList<>();
+		protected final List<Integer> next = new ArrayList<>();
+		// Stack depth change over the block and the most it rises within it
+		protected int delta, peak;
+		protected int depth;
+		protected boolean grows;
+
+		Block(int start) {
+			this.start = start;
+		}
+
+		public int getCycles() {
+			return instructions.size();
+		}
+
+		public int getDelta() {
+			return delta;
+		}
+	}
+
+	public static class Loop {
+		public final Block header;
+		// Instructions around the shortest cycle, and in all of the loop
+		public int typical, worst;
+		public boolean grows;
+
+		Loop(Block header) {
+			this.header = header;
+		}
+	}
+
+	// Stack change of each function, measured on the VM
+	protected static final int[] FUNC_DELTAS = new int[64];
+	// Stack change of io on each port, besides popping the port
+	protected static final Map<Integer, Integer> IO_DELTAS = new HashMap<>();
+
+	static {
+		for (int func = 0; func < 64; func++) {
+			VM vm = new VM();
+
+			for (int i = 0; i < 32; i++) {
+				vm.push8(0);
+			}
+
+			int before = vm.getStackPointer();
+			vm.op_func(func);
+			FUNC_DELTAS[func] = before - vm.getStackPointer();
+		}
+
+		IO_DELTAS.put(Robot.IO_SENSOR, 5);
+		IO_DELTAS.put(Robot.IO_MOTOR, -4);
+		IO_DELTAS.put(Robot.IO_STEER, -4);
+		IO_DELTAS.put(Robot.IO_OVERCLOCK, -1);
+		IO_DELTAS.put(Robot.IO_LAZER, -4);
+		IO_DELTAS.put(Robot.IO_BATTERY, 4);
+		IO_DELTAS.put(Robot.IO_MARK, -2);
+		IO_DELTAS.put(Robot.IO_MARK_READ, 0);
+		IO_DELTAS.put(Robot.IO_ACCELEROMETER, 8);
+		IO_DELTAS.put(Robot.IO_RADIO, -4);
+		IO_DELTAS.put(Robot.IO_SEND, -1);
+		IO_DELTAS.put(Robot.IO_RECV, 1);
+		IO_DELTAS.put(Robot.IO_SENSOR_CONFIG, -1);
+		IO_DELTAS.put(Robot.IO_COMPASS, 4);
+		IO_DELTAS.put(Robot.IO_BEAM_DIRECTION, -4);
+	}
+}
@@ -2,8 +2,8 @@ package asmcup.decompiler;
 
 import java.io.*;
 
-import asmcup.compiler.VMFuncTable;
 import asmcup.vm.VMConsts;
+import asmcup.vm.VMFuncTable;
 
 public class Decompiler implements VMConsts {
 	
@@ -5,13 +5,15 @@ import java.nio.file.Files;
 
 public class Main {
 	public static void main(String[] args) throws IOException {
-		if (args.length != 1) {
-			System.err.printf("USAGE: asmcup-decompiler <file>%n");
+		boolean analyze = (args.length == 2 && args[0].equals("-a"));
+
+		if (args.length != 1 && !analyze) {
+			System.err.printf("USAGE: asmcup-decompiler [-a] <file>%n");
 			System.exit(1);
 			return;
 		}
 
-		File in = new File(args[0]);
+		File in = new File(args[args.length - 1]);
 		byte[] ram = Files.readAllBytes(in.toPath());
 
 		if (ram.length != 256) {
@@ -20,6 +22,11 @@ public class Main {
 			return;
 		}
 
+		if (analyze) {
+			new Analyzer().analyze(ram);
+			return;
+		}
+
 		Decompiler decompiler = new Decompiler();
 		decompiler.decompile(ram);
 	}
@@ -1,15 +1,19 @@
 package asmcup.evaluation;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 import asmcup.genetics.Spawn;
 import asmcup.runtime.Robot;
 import asmcup.runtime.World;
+import asmcup.vm.JitVM;
 import asmcup.vm.VM;
 
-//TODO: Add Evaluator test(s)!
-//- Evaluate same spawn x times
-
 public class Evaluator {
 
 	final public boolean simplified;
@@ -26,11 +30,16 @@ public class Evaluator {
 	public int forceStack;
 	public boolean temporal;
 	public boolean forceIO;
-	
-	public long scoringCount = 0;
+	public int threads;
+	// Runs the bots on JitVM, which compiles their hot code to JVM classes
+	public boolean jit;
 	
 	public int baseSeed = 0;
 	
+	// Shared by every evaluator and the genetic algorithm, so nested work
+	// splits up in one pool instead of each level starting its own
+	private static final HashMap<Integer, ForkJoinPool> pools = new HashMap<>();
+	
 	public Evaluator(boolean simplified) {
 		this.simplified = simplified;
 		
@@ -45,19 +54,114 @@ public class Evaluator {
 		batteryReward = simplified ? 0 : 50;
 		temporal = simplified ? false : true;
 		forceIO = false;
+		threads = Runtime.getRuntime().availableProcessors();
 	}
 	
-	// TODO: Make more transparent for threading...
 	public float score(byte[] ram) {
-		scoringCount = 0;
-		Scorer scorer = new Scorer();
+		List<Spawn> spawns = getSpawns();
+		float[] turns = getTurns();
+		float[] scores = new float[spawns.size() * turns.length];
+		
+		if (threads > 1 && scores.length > 1) {
+			ScoreTask task = new ScoreTask(ram, spawns, turns, scores, 0, scores.length);
+			
+			if (ForkJoinTask.inForkJoinPool()) {
+				// Already on a worker, like when the GA scores a generation
+				task.invoke();
+			} else {
+				getPool(threads).invoke(task);
+			}
+		} else {
+			Scorer scorer = new Scorer();
+			
+			for (int i = 0; i < scores.length; i++) {
+				scores[i] = scorer.calculate(ram, spawns.get(i / turns.length), turns[i % turns.length]);
+			}
+		}
+		
+		// Sum in the same order as Scorer.calculate360 so the result does not
+		// depend on how the work was split up.
 		float score = 0.0f;
-
+		
+		for (int s = 0; s < spawns.size(); s++) {
+			float spawnScore = 0.0f;
+			
+			for (int t = 0; t < turns.length; t++) {
+				spawnScore += scores[s * turns.length + t];
+			}
+			
+			score += spawnScore;
+		}
+		
+		return score / Math.max(scores.length, 1);
+	}
+	
+	protected List<Spawn> getSpawns() {
+		ArrayList<Spawn> spawns = new ArrayList<>();
+		
 		for (int i = 0; i < extraWorldCount; i++) {
-			score += scorer.calculate360(ram, Spawn.randomFromSeed(baseSeed + i));
+			spawns.add(Spawn.randomFromSeed(baseSeed + i));
 		}
 		
-		return score / Math.max(scoringCount, 1);
+		return spawns;
+	}
+	
+	protected float[] getTurns() {
+		ArrayList<Float> list = new ArrayList<>();
+		
+		for (float turn = 0; turn < 360f; turn += 360f / directionsPerSpawn) {
+			list.add((float)Math.toRadians(turn));
+		}
+		
+		float[] turns = new float[list.size()];
+		
+		for (int i = 0; i < turns.length; i++) {
+			turns[i] = list.get(i);
+		}
+		
+		return turns;
+	}
+	
+	/**
+	 * Returns the pool for the number of threads. Pools are kept rather than
+	 * shut down when the setting changes, since a GA run may still be using
+	 * one while the evaluator panel scores with another.
+	 */
+	public static synchronized ForkJoinPool getPool(int threads) {
+		return pools.computeIfAbsent(threads, ForkJoinPool::new);
+	}
+	
+	protected class ScoreTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final byte[] ram;
+		private final List<Spawn> spawns;
+		private final float[] turns;
+		private final float[] scores;
+		private final int start, end;
+		
+		public ScoreTask(byte[] ram, List<Spawn> spawns, float[] turns, float[] scores, int start, int end) {
+			this.ram = ram;
+			this.spawns = spawns;
+			this.turns = turns;
+			this.scores = scores;
+			this.start = start;
+			this.end = end;
+		}
+		
+		@Override
+		protected void compute() {
+			if (end - start == 1) {
+				// Every run owns its Scorer, so nothing is shared between workers
+				Scorer scorer = new Scorer();
+				scores[start] = scorer.calculate(ram, spawns.get(start / turns.length), turns[start % turns.length]);
+				return;
+			}
+			
+			int mid = (start + end) >>> 1;
+			invokeAll(new ScoreTask(ram, spawns, turns, scores, start, mid),
+			          new ScoreTask(ram, spawns, turns, scores, mid, end));
+		}
 	}
 	
 	protected class Scorer {
@@ -75,15 +179,15 @@ public class Evaluator {
 		public float calculate360(byte[] ram, Spawn spawn) {
 			float score = 0.0f;
 			
-			for (float turn = 0; turn < 360f; turn += 360f / directionsPerSpawn) {
-				score += calculate(ram, spawn, (float)Math.toRadians(turn));
+			for (float turn : getTurns()) {
+				score += calculate(ram, spawn, turn);
 			}
 			
 			return score;
 		}
 		
 		public float calculate(byte[] ram, Spawn spawn, float turn) {
-			vm = new VM(ram.clone());
+			vm = jit ? new JitVM(ram.clone()) : new VM(ram.clone());
 			robot = new Robot(1, vm);
 			world = spawn.getNewWorld();
 			
@@ -137,7 +241,6 @@ public class Evaluator {
 				score += 0.001f;
 			}
 			
-			scoringCount++;
 			return score;
 		}
 
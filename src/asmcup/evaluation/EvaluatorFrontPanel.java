@@ -19,6 +19,8 @@ public class EvaluatorFrontPanel extends FrontPanel {
 	protected JCheckBox temporalCheckBox = createCheckBox();
 	protected JSpinner stackSpinner = createSpinner(0, 0, 256);
 	protected JCheckBox ioCheckBox = createCheckBox();
+	protected JSpinner threadSpinner = createSpinner(1, 1, 256);
+	protected JCheckBox jitCheckBox = createCheckBox();
 	
 	public EvaluatorFrontPanel(Evaluator evaluator) {
 		this.evaluator = evaluator;
@@ -39,6 +41,8 @@ public class EvaluatorFrontPanel extends FrontPanel {
 			addRow("Force IO:", ioCheckBox, "Kill a bot if it ever generates an invalid IO command");
 		}
 		addRow("Early Reward:", temporalCheckBox, "Scale points so earlier activity is worth more");
+		addRow("Threads:", threadSpinner, "Number of worker threads used for scoring (1 is single-threaded)");
+		addRow("JIT:", jitCheckBox, "Compile hot bot code to Java classes, faster for long runs");
 		updateSliders();
 	}
 	
@@ -55,6 +59,8 @@ public class EvaluatorFrontPanel extends FrontPanel {
 		stackSpinner.setValue(evaluator.forceStack);
 		ioCheckBox.setSelected(evaluator.forceIO);
 		temporalCheckBox.setSelected(evaluator.temporal);
+		threadSpinner.setValue(Math.max(1, Math.min(256, evaluator.threads)));
+		jitCheckBox.setSelected(evaluator.jit);
 	}
 
 	public void updateEvaluator() {
@@ -70,5 +76,7 @@ public class EvaluatorFrontPanel extends FrontPanel {
 		evaluator.forceStack = getInt(stackSpinner);
 		evaluator.forceIO = ioCheckBox.isSelected();
 		evaluator.temporal = temporalCheckBox.isSelected();
+		evaluator.threads = getInt(threadSpinner);
+		evaluator.jit = jitCheckBox.isSelected();
 	}
 }
@@ -1,5 +1,7 @@
 package asmcup.evaluation;
 
+import java.util.List;
+
 import asmcup.genetics.Spawn;
 
 public class SpawnEvaluator extends Evaluator {
@@ -11,15 +13,10 @@ public class SpawnEvaluator extends Evaluator {
 	}
 	
 	@Override
-	public float score(byte[] ram) {
+	protected List<Spawn> getSpawns() {
 		baseSeed = spawns.getCombinedSeed();
-		float score = super.score(ram) * scoringCount;
-		
-		Scorer scorer = new Scorer();
-		for (Spawn spawn : spawns.getIterable()) {
-			score += scorer.calculate360(ram, spawn);
-		}
-		
-		return score / Math.max(scoringCount, 1);
+		List<Spawn> list = super.getSpawns();
+		list.addAll(spawns.getIterable());
+		return list;
 	}
 }
\ No newline at end of file
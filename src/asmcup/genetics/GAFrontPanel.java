@@ -10,6 +10,7 @@ public class GAFrontPanel extends FrontPanel {
 	protected JSpinner mutationSpinner = createSpinner(100, 0, 100);
 	protected JSpinner sizeSpinner = createSpinner(256, 1, 256);
 	protected JSpinner chunkSpinner = createSpinner(4, 0, 256);
+	protected JSpinner threadSpinner = createSpinner(1, 1, 256);
 	protected JLabel bestLabel = new JLabel("0");
 	protected JLabel worstLabel = new JLabel("0");
 	protected JLabel genLabel = new JLabel("0");
@@ -24,6 +25,7 @@ public class GAFrontPanel extends FrontPanel {
 		addRow("Mutation Chance:", mutationSpinner, "Maximum chance that mutation will occur during mating");
 		addRow("Mutation Size:", chunkSpinner, "Maximum number of bytes that will be changed per mutation");
 		addRow("Program Size:", sizeSpinner, "Number of bytes in the ROM that will be used");
+		addRow("Parallel Genes:", threadSpinner, "Number of new genes that are scored at the same time");
 		addRow("Best:", bestLabel, "Highest score in the gene pool");
 		addRow("Worst:", worstLabel, "Lowest score in the gene pool");
 		addRow("Mutation:", mutationLabel, "Current chance of mutation");
@@ -34,6 +36,7 @@ public class GAFrontPanel extends FrontPanel {
 		ga.maxMutationRate = getInt(mutationSpinner);
 		ga.dnaLength = getInt(sizeSpinner);
 		ga.mutationSize = getInt(chunkSpinner);
+		ga.threads = getInt(threadSpinner);
 		
 		//ga.resizePopulation(getInt(popSpinner));
 	}
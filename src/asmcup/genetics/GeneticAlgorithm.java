@@ -3,6 +3,7 @@ package asmcup.genetics;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.RecursiveAction;
 
 import asmcup.evaluation.Evaluator;
 
@@ -17,14 +18,23 @@ public class GeneticAlgorithm {
 	public int maxMutationRate = 100;
 	public int mutationSize = 4;
 	public int dnaLength = 256;
+	public int threads = 1;
 
 	// FIXME: Handle DNA length changes gracefully
 	// TODO: Meaningful initial population?
 	
 	public GeneticAlgorithm(Evaluator evaluator) {
+		this(evaluator, new Random());
+	}
+	
+	public GeneticAlgorithm(Evaluator evaluator, long seed) {
+		this(evaluator, new Random(seed));
+	}
+	
+	protected GeneticAlgorithm(Evaluator evaluator, Random random) {
 		this.evaluator = evaluator;
+		this.random = random;
 
-		random = new Random();
 		population = new Gene[0];
 		pinned = new ArrayList<>();
 	}
@@ -32,23 +42,29 @@ public class GeneticAlgorithm {
 	public Gene createGene(byte[] rom) {
 		return new Gene(rom, generation, evaluator.score(rom));
 	}
-
-	public void initializePopulation(int populationSize) {
-		population = new Gene[populationSize];
+	
+	public Gene[] createGenes(byte[][] roms) {
+		Gene[] genes = new Gene[roms.length];
 		
-		for (int i=0; i < population.length; i++) {
-			population[i] = randomGene();
+		if (threads > 1 && roms.length > 1) {
+			// The evaluator splits each gene's runs up in this same pool
+			int parallelism = Math.max(threads, evaluator.threads);
+			Evaluator.getPool(parallelism).invoke(new GeneTask(roms, genes, 0, roms.length));
+		} else {
+			for (int i=0; i < roms.length; i++) {
+				genes[i] = createGene(roms[i]);
+			}
 		}
+		
+		return genes;
+	}
+
+	public void initializePopulation(int populationSize) {
+		population = randomGenes(populationSize);
 	}
 	
 	public void resizePopulation(int newSize) {
-		Gene[] newPop = new Gene[newSize];
-		
-		for (int i=0; i < newSize; i++) {
-			newPop[i] = randomGene();
-		}
-		
-		population = newPop;
+		population = randomGenes(newSize);
 	}
 	
 	public void nextGeneration() {
@@ -56,26 +72,36 @@ public class GeneticAlgorithm {
 		
 		int halfPoint = population.length / 2;
 		int pin = pinned.size();
+		byte[][] children = new byte[population.length - halfPoint][];
 		
-		for (int i=halfPoint; i < population.length; i++) {
+		// Breeding only reads the upper half, so every child can be bred
+		// with the RNG first and then scored all at once.
+		for (int i=0; i < children.length; i++) {
 			if (pin > 0) {
 				pin--;
-				population[i] = cross(pinned.get(pin), selectRandomGene());
+				children[i] = crossDNA(pinned.get(pin), selectRandomGene());
 			} else {
-				population[i] = cross();
+				children[i] = crossDNA();
 			}
 		}
 		
+		System.arraycopy(createGenes(children), 0, population, halfPoint, children.length);
 		Arrays.sort(population);
 		generation++;
 	}
-
+	
 	private byte randomByte() {
 		return (byte)random.nextInt(256);
 	}
 	
-	private Gene randomGene() {
-		return createGene(randomDNA());
+	private Gene[] randomGenes(int count) {
+		byte[][] dna = new byte[count][];
+		
+		for (int i=0; i < count; i++) {
+			dna[i] = randomDNA();
+		}
+		
+		return createGenes(dna);
 	}
 	
 	private byte[] randomDNA() {
@@ -94,6 +120,10 @@ public class GeneticAlgorithm {
 	}
 	
 	public Gene cross() {
+		return createGene(crossDNA());
+	}
+	
+	protected byte[] crossDNA() {
 		int a, b;
 		
 		do {
@@ -101,10 +131,14 @@ public class GeneticAlgorithm {
 			b = random.nextInt(population.length / 2);
 		} while (a == b);
 		
-		return cross(population[a], population[b]);
+		return crossDNA(population[a], population[b]);
 	}
 	
 	public Gene cross(Gene mom, Gene dad) {
+		return createGene(crossDNA(mom, dad));
+	}
+	
+	protected byte[] crossDNA(Gene mom, Gene dad) {
 		byte[] dna = mom.dna.clone();
 		
 		switch (random.nextInt(2)) {
@@ -121,7 +155,7 @@ public class GeneticAlgorithm {
 			mutate(dna);
 		}
 		
-		return createGene(dna);
+		return dna;
 	}
 	
 	protected void crossTwoPoint(Gene mom, Gene dad, byte[] dna) {
@@ -185,4 +219,31 @@ public class GeneticAlgorithm {
 	public void pin(byte[] dna) {
 		pinned.add(createGene(dna));
 	}
+	
+	protected class GeneTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final byte[][] roms;
+		private final Gene[] genes;
+		private final int start, end;
+		
+		public GeneTask(byte[][] roms, Gene[] genes, int start, int end) {
+			this.roms = roms;
+			this.genes = genes;
+			this.start = start;
+			this.end = end;
+		}
+		
+		@Override
+		protected void compute() {
+			if (end - start == 1) {
+				genes[start] = createGene(roms[start]);
+				return;
+			}
+			
+			int mid = (start + end) >>> 1;
+			invokeAll(new GeneTask(roms, genes, start, mid),
+			          new GeneTask(roms, genes, mid, end));
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,204 @@
+package asmcup.runtime;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.concurrent.*;
+
+/**
+ * Runs many independent matches on a bounded pool of worker threads.
+ * The manifest uses the same commands as a single match config, with a
+ * "match [name]" line starting each match:
+ *
+ * <pre>
+ * match first
+ * seed 1
+ * frames 1000
+ * bot 1 BASE64ROM
+ * match second
+ * ...
+ * </pre>
+ *
+ * Each match is printed as one block, in manifest order. The match at the
+ * front streams its output as it runs, the ones behind it hold theirs
+ * until it is their turn. Throughput stats go to stderr at the end.
+ */
+public class Batch {
+	public int threads = Runtime.getRuntime().availableProcessors();
+	protected final ArrayList<Match> matches = new ArrayList<>();
+	protected PrintStream out = System.out;
+	protected PrintStream err = System.err;
+	// The match whose output goes straight through
+	protected int current;
+
+	public void configure(InputStream input) throws IOException {
+		InputStreamReader streamReader = new InputStreamReader(input, Charset.forName("US-ASCII"));
+		BufferedReader reader = new BufferedReader(streamReader);
+		String line;
+
+		while ((line = reader.readLine()) != null) {
+			configure(line);
+		}
+
+		reader.close();
+	}
+
+	public void configure(String line) {
+		String[] parts = line.trim().split("[\\s\\t]+", 2);
+
+		if (parts[0].isEmpty()) {
+			return;
+		}
+
+		if (parts[0].equalsIgnoreCase("match")) {
+			String name = (parts.length > 1) ? parts[1] : Integer.toString(matches.size());
+			matches.add(new Match(matches.size(), name));
+		} else if (matches.isEmpty()) {
+			throw new IllegalArgumentException("Expected match before " + parts[0]);
+		} else {
+			// Checked when the match runs, so a bad match doesn't stop the others
+			matches.get(matches.size() - 1).config.add(line);
+		}
+	}
+
+	public int getMatchCount() {
+		return matches.size();
+	}
+
+	public void run() throws InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(StrictMath.max(1, threads));
+		CompletionService<Match> done = new ExecutorCompletionService<>(pool);
+		long start = System.nanoTime();
+		long frames = 0;
+
+		current = 0;
+
+		if (!matches.isEmpty()) {
+			matches.get(0).output.release();
+		}
+
+		try {
+			for (Match match : matches) {
+				done.submit(match::run, match);
+			}
+
+			for (int i=0; i < matches.size(); i++) {
+				Match match = done.take().get();
+				frames += match.framesRun;
+			}
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			pool.shutdownNow();
+		}
+
+		double seconds = StrictMath.max(System.nanoTime() - start, 1) / 1e9;
+		err.printf("%d matches, %d frames in %.2fs (%.1f matches/s, %.1f frames/s)%n",
+				matches.size(), frames, seconds, matches.size() / seconds, frames / seconds);
+	}
+
+	/**
+	 * Lets the matches after the one that finished print, up to the next
+	 * one still running, which streams from then on.
+	 */
+	protected synchronized void finished(Match match) {
+		match.done = true;
+
+		while (current < matches.size() && matches.get(current).done) {
+			current++;
+
+			if (current < matches.size()) {
+				matches.get(current).output.release();
+			}
+		}
+
+		out.flush();
+	}
+
+	/**
+	 * Holds a match's output until it is released, then writes through.
+	 */
+	protected class Relay extends OutputStream {
+		protected ByteArrayOutputStream held = new ByteArrayOutputStream();
+
+		@Override
+		public void write(int b) {
+			synchronized (Batch.this) {
+				if (held == null) {
+					out.write(b);
+				} else {
+					held.write(b);
+				}
+			}
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) {
+			synchronized (Batch.this) {
+				if (held == null) {
+					out.write(bytes, offset, length);
+				} else {
+					held.write(bytes, offset, length);
+				}
+			}
+		}
+
+		protected void release() {
+			synchronized (Batch.this) {
+				out.write(held.toByteArray(), 0, held.size());
+				held = null;
+			}
+		}
+	}
+
+	protected class Match {
+		final int index;
+		final String name;
+		final ArrayList<String> config = new ArrayList<>();
+		final Relay output = new Relay();
+		int framesRun;
+		boolean done;
+
+		Match(int index, String name) {
+			this.index = index;
+			this.name = name;
+		}
+
+		void run() {
+			PrintStream out = new PrintStream(output);
+			Main main = new Main();
+			main.out = out;
+			out.printf("match %d %s%n", index, name);
+
+			try {
+
+				for (String line : config) {
+					main.configure(line);
+				}
+
+				long start = System.nanoTime();
+				main.run();
+				long ms = (System.nanoTime() - start) / 1000000;
+				framesRun = main.frames;
+
+				for (Robot robot : main.world.getRobots()) {
+					out.printf("bot %d battery %d gold %d%n", robot.id, robot.getBattery(), robot.getGold());
+				}
+
+				out.printf("end %d frames %d ms %d%n", index, framesRun, ms);
+			} catch (RuntimeException e) {
+				out.printf("error %d %s%n", index, e);
+			} finally {
+				// A failed match still finishes the file it was recording to
+				try {
+					main.close();
+				} catch (RuntimeException e) {
+					out.printf("error %d %s%n", index, e);
+				}
+			}
+
+			out.flush();
+			finished(this);
+		}
+	}
+}
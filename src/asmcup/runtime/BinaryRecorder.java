@@ -0,0 +1,156 @@
+package asmcup.runtime;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.*;
+
+/**
+ * Writes io events as a compact binary log. After a five byte header each
+ * event is the varint frame delta since the previous event, the zigzag
+ * varint robot id, the varint length and then the raw io bytes.
+ */
+public class BinaryRecorder implements Recorder {
+	protected final WritableByteChannel channel;
+	protected final ByteBuffer buffer;
+	protected int lastFrame;
+
+	public BinaryRecorder(Path path) throws IOException {
+		this(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING));
+	}
+
+	public BinaryRecorder(WritableByteChannel channel) throws IOException {
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		buffer.put(MAGIC);
+		buffer.put((byte)VERSION);
+	}
+
+	@Override
+	public void record(int frame, RecordedRobot robot, byte[] data) {
+		try {
+			write(frame, robot.id, data);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public void write(int frame, int id, byte[] data) throws IOException {
+		if (frame < lastFrame) {
+			throw new IllegalArgumentException("Frames must be recorded in order");
+		}
+
+		if (buffer.remaining() < 15 + data.length) {
+			flush();
+		}
+
+		putVarint(buffer, frame - lastFrame);
+		putVarint(buffer, (id << 1) ^ (id >> 31));
+		putVarint(buffer, data.length);
+		lastFrame = frame;
+
+		if (data.length > buffer.remaining()) {
+			flush();
+			drain(ByteBuffer.wrap(data));
+		} else {
+			buffer.put(data);
+		}
+	}
+
+	public void flush() throws IOException {
+		buffer.flip();
+		drain(buffer);
+		buffer.clear();
+	}
+
+	@Override
+	public void close() throws IOException {
+		flush();
+		channel.close();
+	}
+
+	protected void drain(ByteBuffer src) throws IOException {
+		while (src.hasRemaining()) {
+			channel.write(src);
+		}
+	}
+
+	protected static void putVarint(ByteBuffer buffer, int value) {
+		while ((value & ~0x7F) != 0) {
+			buffer.put((byte)((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+
+		buffer.put((byte)value);
+	}
+
+	protected static int getVarint(ByteBuffer buffer) {
+		int value = 0;
+
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = buffer.get();
+			value |= (b & 0x7F) << shift;
+
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+
+		throw new IllegalArgumentException("Malformed varint in recording");
+	}
+
+	/**
+	 * Checks the header of a recording and leaves the buffer positioned at
+	 * the first event.
+	 */
+	public static void readHeader(ByteBuffer buffer) {
+		for (int i=0; i < MAGIC.length; i++) {
+			if (buffer.remaining() < 1 || buffer.get() != MAGIC[i]) {
+				throw new IllegalArgumentException("Not a binary recording");
+			}
+		}
+
+		int version = buffer.hasRemaining() ? buffer.get() : -1;
+
+		if (version != VERSION) {
+			throw new IllegalArgumentException("Unsupported recording version " + version);
+		}
+	}
+
+	/**
+	 * Converts a binary recording to the "io frame robot base64" text format.
+	 */
+	public static void toText(ByteBuffer buffer, PrintStream out) {
+		readHeader(buffer);
+		int frame = 0;
+
+		while (buffer.hasRemaining()) {
+			frame += getVarint(buffer);
+			int zigzag = getVarint(buffer);
+			byte[] data = new byte[getVarint(buffer)];
+			buffer.get(data);
+			TextRecorder.write(out, frame, (zigzag >>> 1) ^ -(zigzag & 1), data);
+		}
+
+		out.flush();
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.err.printf("USAGE: asmcup-recording file%n");
+			System.exit(1);
+			return;
+		}
+
+		try (FileChannel channel = FileChannel.open(Paths.get(args[0]), StandardOpenOption.READ)) {
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			toText(buffer, new PrintStream(new BufferedOutputStream(System.out), false, "US-ASCII"));
+		}
+	}
+
+	public static final byte[] MAGIC = {'A', 'S', 'M', 'R'};
+	public static final int VERSION = 1;
+	public static final int BUFFER_SIZE = 1 << 16;
+}
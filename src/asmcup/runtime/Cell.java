@@ -1,12 +1,20 @@
 package asmcup.runtime;
 
+import java.io.*;
 import java.util.*;
 
 public class Cell {
 	protected final World world;
 	protected final int cellX, cellY;
-	protected final int[] tiles = new int[World.TILES_PER_CELL * World.TILES_PER_CELL];
-	protected final ArrayList<Item> items = new ArrayList<>();
+	// Tiles fit in a byte, see TILE.TYPE_BITS and TILE.VARIATION_BITS
+	protected byte[] tiles = new byte[World.TILES_PER_CELL * World.TILES_PER_CELL];
+	protected List<Item> items = new ArrayList<>();
+	// Built on the first lookup after the items change
+	protected ItemIndex itemIndex;
+	// Set while tiles or items still belong to a cached template
+	protected boolean sharedTiles, sharedItems;
+	// Set when tiles or items change after generation
+	protected boolean modified;
 	
 	public Cell(World world, int cellX, int cellY) {
 		this.world = world;
@@ -14,23 +22,80 @@ public class Cell {
 		this.cellY = cellY;
 	}
 	
+	public Cell(World world, DataInputStream stream) throws IOException {
+		this(world, stream.readInt(), stream.readInt());
+		
+		stream.readFully(tiles);
+		int count = stream.readInt();
+		
+		for (int i=0; i < count; i++) {
+			items.add(Item.load(stream));
+		}
+		
+		modified = true;
+	}
+	
+	public void save(DataOutputStream stream) throws IOException {
+		stream.writeInt(cellX);
+		stream.writeInt(cellY);
+		
+		stream.write(tiles);
+		stream.writeInt(items.size());
+		
+		for (Item item : items) {
+			item.save(stream);
+		}
+	}
+	
 	public void generate() {
-		Generator gen = new Generator(world, this);
+		CellCache cache = world.getCellCache();
+		CellCache.Template template = null;
 		
-		if (cellX == 0 || cellY == 0 || cellX == World.CELL_COUNT || cellY == World.CELL_COUNT) {
-			gen.square(gen.same(TILE.HAZARD, 3), 0, 0, World.TILES_PER_CELL);
-			return;
+		if (cache != null) {
+			template = cache.get(world.getSeed(), cellX, cellY);
 		}
 		
-		gen.square(gen.variantRare(TILE.GROUND), 0, 0, World.TILES_PER_CELL);
+		if (template == null) {
+			generateNew();
+			
+			if (cache != null) {
+				template = new CellCache.Template(tiles, items);
+				cache.put(world.getSeed(), cellX, cellY, template);
+			}
+		}
+		
+		if (template != null) {
+			// Copied on the first write, most cells are never written to
+			tiles = template.tiles;
+			items = template.items;
+			itemIndex = null;
+			sharedTiles = true;
+			sharedItems = true;
+		}
+		
+		modified = false;
+	}
+	
+	protected void generateNew() {
+		Generator gen = new Generator(world, this);
 		
-		if (gen.chance(33)) {
-			gen.room();
+		if (cellX == 0 || cellY == 0 || cellX == World.CELL_COUNT || cellY == World.CELL_COUNT) {
+			gen.square(gen.same(TILE.HAZARD, 3), 0, 0, World.TILES_PER_CELL);
 		} else {
-			gen.openArea();
+			gen.square(gen.variantRare(TILE.GROUND), 0, 0, World.TILES_PER_CELL);
+			
+			if (gen.chance(33)) {
+				gen.room();
+			} else {
+				gen.openArea();
+			}
 		}
 	}
 	
+	public boolean isModified() {
+		return modified;
+	}
+	
 	public int getX() {
 		return cellX;
 	}
@@ -56,7 +121,10 @@ public class Cell {
 			throw new NullPointerException();
 		}
 		
+		ownItems();
 		items.add(item);
+		itemIndex = null;
+		modified = true;
 	}
 	
 	public Iterable<Item> getItems() {
@@ -64,21 +132,44 @@ public class Cell {
 	}
 	
 	public Item getItem(float x, float y) {
-		for (Item item : items) {
-			if (item.withinDistance(x, y)) {
-				return item;
-			}
+		if (items.isEmpty()) {
+			return null;
+		}
+		
+		if (itemIndex == null) {
+			itemIndex = new ItemIndex(cellX, cellY, items);
 		}
 		
-		return null;
+		return itemIndex.find(items, x, y);
 	}
 	
 	public void removeItem(Item item) {
+		if (!items.contains(item)) {
+			return;
+		}
+		
+		ownItems();
 		items.remove(item);
+		itemIndex = null;
+		modified = true;
+	}
+	
+	protected void ownItems() {
+		if (sharedItems) {
+			items = new ArrayList<>(items);
+			sharedItems = false;
+		}
+	}
+	
+	protected void ownTiles() {
+		if (sharedTiles) {
+			tiles = tiles.clone();
+			sharedTiles = false;
+		}
 	}
 	
 	protected int getTile(int col, int row) {
-		return tiles[clampTile(col) + (clampTile(row) * World.TILES_PER_CELL)];
+		return tiles[clampTile(col) + (clampTile(row) * World.TILES_PER_CELL)] & 0xFF;
 	}
 	
 	private static int clampTile(int i) {
@@ -94,6 +185,12 @@ public class Cell {
 			throw new IllegalArgumentException("Tile coordinates outside of bounds");
 		}
 		
-		tiles[col + (row * World.TILES_PER_CELL)] = value;
+		if (value < 0 || value > 0xFF) {
+			throw new IllegalArgumentException("Tile value must fit in a byte");
+		}
+		
+		ownTiles();
+		tiles[col + (row * World.TILES_PER_CELL)] = (byte)value;
+		modified = true;
 	}
 }
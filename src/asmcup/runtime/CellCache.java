@@ -0,0 +1,76 @@
+package asmcup.runtime;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers what generated cells look like, keyed by seed and cell, so
+ * worlds with the same seed share their cells instead of running the
+ * Generator again. Templates are immutable and shared between threads,
+ * cells copy a template's tiles or items before changing them.
+ */
+public class CellCache {
+	public int capacity = 1 << 13;
+	private final ConcurrentHashMap<Key, Template> templates = new ConcurrentHashMap<>();
+
+	private static final CellCache shared = new CellCache();
+
+	public static CellCache getShared() {
+		return shared;
+	}
+
+	public Template get(int seed, int cellX, int cellY) {
+		return templates.get(new Key(seed, cellX, cellY));
+	}
+
+	public void put(int seed, int cellX, int cellY, Template template) {
+		if (templates.size() >= capacity) {
+			templates.clear();
+		}
+
+		templates.putIfAbsent(new Key(seed, cellX, cellY), template);
+	}
+
+	public int size() {
+		return templates.size();
+	}
+
+	public void clear() {
+		templates.clear();
+	}
+
+	public static class Template {
+		protected final byte[] tiles;
+		// Items are never changed once placed, so cells can share them
+		protected final List<Item> items;
+
+		public Template(byte[] tiles, List<Item> items) {
+			this.tiles = tiles;
+			this.items = items.isEmpty() ? Collections.emptyList()
+				: Collections.unmodifiableList(new ArrayList<>(items));
+		}
+	}
+
+	private static class Key {
+		final int seed, cellX, cellY;
+
+		Key(int seed, int cellX, int cellY) {
+			this.seed = seed;
+			this.cellX = cellX;
+			this.cellY = cellY;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) return false;
+
+			Key key = (Key) obj;
+			return seed == key.seed && cellX == key.cellX && cellY == key.cellY;
+		}
+
+		@Override
+		public int hashCode() {
+			return (seed * 31 + cellX) * 31 + cellY;
+		}
+	}
+}
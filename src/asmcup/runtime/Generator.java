@@ -328,7 +328,7 @@ public class Generator {
 			x = left + roomCol(1) * World.TILE_SIZE;
 			y = top  + roomRow(1) * World.TILE_SIZE;
 			
-			if (world.checkTile(TILE.IS_SPAWNABLE, x, y)) {
+			if (world.checkTile(TILE.PROP_SPAWNABLE, x, y)) {
 				break;
 			}
 		}
@@ -1,5 +1,7 @@
 package asmcup.runtime;
 
+import java.io.*;
+
 public abstract class Item {
 	protected float x, y;
 	
@@ -19,11 +21,50 @@ public abstract class Item {
 	public boolean withinDistance(float tx, float ty) {
 		float dx = tx - x;
 		float dy = ty - y;
-		return StrictMath.sqrt(dx * dx + dy * dy) <= 20;
+		// Same as comparing the square root, without taking it
+		return dx * dx + dy * dy <= COLLECT_RANGE * COLLECT_RANGE;
 	}
 	
 	public abstract void collect(Robot robot);
 	
+	protected abstract int getType();
+	
+	protected abstract int getValue();
+	
+	public void save(DataOutputStream stream) throws IOException {
+		stream.writeByte(getType());
+		stream.writeFloat(x);
+		stream.writeFloat(y);
+		stream.writeInt(getValue());
+	}
+	
+	public static Item load(DataInputStream stream) throws IOException {
+		int type = stream.readUnsignedByte();
+		float x = stream.readFloat();
+		float y = stream.readFloat();
+		int value = stream.readInt();
+		Item item;
+		
+		switch (type) {
+		case TYPE_BATTERY:
+			item = new Battery(value);
+			break;
+		case TYPE_GOLD:
+			item = new Gold(value);
+			break;
+		default:
+			throw new IOException("Unknown item type " + type);
+		}
+		
+		item.position(x, y);
+		return item;
+	}
+	
+	public static final int COLLECT_RANGE = 20;
+	
+	protected static final int TYPE_BATTERY = 0;
+	protected static final int TYPE_GOLD = 1;
+	
 	public static class Battery extends Item {
 		protected int value;
 		
@@ -39,6 +80,14 @@ public abstract class Item {
 			robot.addBattery(value * 100);
 		}
 		
+		protected int getType() {
+			return TYPE_BATTERY;
+		}
+		
+		protected int getValue() {
+			return value;
+		}
+		
 		public int getVariant() {
 			return value / 25;
 		}
@@ -69,6 +118,10 @@ public abstract class Item {
 			robot.addGold(value);
 		}
 		
+		protected int getType() {
+			return TYPE_GOLD;
+		}
+		
 		public static final int DEFAULT_VALUE = 50;
 	}
 }
@@ -0,0 +1,63 @@
+package asmcup.runtime;
+
+import java.util.List;
+
+/**
+ * Buckets the items of a cell by the tile they are in, so finding the item
+ * at a point only looks at the tiles around it. An index is only valid for
+ * the item list it was built from.
+ */
+public class ItemIndex {
+	protected final int originCol, originRow;
+	// Index + 1 of the first item in each tile and of the next item in the
+	// same tile, 0 ends the chain
+	protected final char[] heads = new char[World.TILES_PER_CELL * World.TILES_PER_CELL];
+	protected final char[] next;
+
+	public ItemIndex(int cellX, int cellY, List<Item> items) {
+		if (items.size() >= Character.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many items in cell");
+		}
+
+		originCol = cellX * World.TILES_PER_CELL;
+		originRow = cellY * World.TILES_PER_CELL;
+		next = new char[items.size()];
+
+		for (int i = items.size() - 1; i >= 0; i--) {
+			Item item = items.get(i);
+			int tile = tile(item.getX(), originCol) + tile(item.getY(), originRow) * World.TILES_PER_CELL;
+			next[i] = heads[tile];
+			heads[tile] = (char)(i + 1);
+		}
+	}
+
+	/**
+	 * Returns the first item in the list within collect range of the point,
+	 * the same one a scan of the whole list would return.
+	 */
+	public Item find(List<Item> items, float x, float y) {
+		// Collect range is smaller than a tile, so neighbors are enough
+		int col = tile(x, originCol);
+		int row = tile(y, originRow);
+		int left = StrictMath.max(0, col - 1), right = StrictMath.min(World.TILES_PER_CELL - 1, col + 1);
+		int top = StrictMath.max(0, row - 1), bottom = StrictMath.min(World.TILES_PER_CELL - 1, row + 1);
+		int found = -1;
+
+		for (int r = top; r <= bottom; r++) {
+			for (int c = left; c <= right; c++) {
+				for (int i = heads[c + r * World.TILES_PER_CELL]; i != 0; i = next[i - 1]) {
+					if ((found < 0 || i - 1 < found) && items.get(i - 1).withinDistance(x, y)) {
+						found = i - 1;
+					}
+				}
+			}
+		}
+
+		return (found < 0) ? null : items.get(found);
+	}
+
+	protected static int tile(float f, int origin) {
+		long tile = (long)StrictMath.floor(f / World.TILE_SIZE) - origin;
+		return (int)StrictMath.max(0, StrictMath.min(World.TILES_PER_CELL - 1, tile));
+	}
+}
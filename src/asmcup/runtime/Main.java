@@ -2,21 +2,36 @@ package asmcup.runtime;
 
 import java.io.*;
 import java.nio.charset.Charset;
-import java.util.Base64;
+import java.nio.file.Paths;
+import java.util.*;
 
+import asmcup.vm.JitVM;
+import asmcup.vm.Profile;
 import asmcup.vm.VM;
 
-public class Main implements Recorder {
+public class Main {
 	protected World world;
 	protected int frames;
 	protected boolean recording;
+	protected boolean jit;
+	// Applied to the world whenever a seed creates it
+	protected boolean exactRays;
+	protected int markCapacity = -1;
+	protected Recorder recorder;
+	protected PrintStream out = System.out;
+	protected String profilePath;
+	protected final LinkedHashMap<Integer, Profile> profiles = new LinkedHashMap<>();
 	
-	public static void main(String[] args) throws IOException {
+	public static void main(String[] args) throws IOException, InterruptedException {
 		Main main = new Main();
 		
+		if (args.length > 0 && args[0].equals("-batch")) {
+			batch(args);
+			return;
+		}
+		
 		if (args.length > 1) {
-			System.err.printf("USAGE: asmcup-runtime [file]%n");
-			System.exit(1);
+			usage();
 			return;
 		}
 		
@@ -32,6 +47,28 @@ public class Main implements Recorder {
 		main.run();
 	}
 	
+	protected static void batch(String[] args) throws IOException, InterruptedException {
+		if (args.length < 2 || args.length > 3) {
+			usage();
+			return;
+		}
+		
+		Batch batch = new Batch();
+		
+		if (args.length > 2) {
+			batch.threads = Integer.parseInt(args[2]);
+		}
+		
+		batch.configure(new FileInputStream(new File(args[1])));
+		batch.run();
+	}
+	
+	protected static void usage() {
+		System.err.printf("USAGE: asmcup-runtime [file]%n");
+		System.err.printf("       asmcup-runtime -batch manifest [threads]%n");
+		System.exit(1);
+	}
+	
 	public void configure(InputStream input) throws IOException {
 		InputStreamReader streamReader = new InputStreamReader(input, Charset.forName("US-ASCII"));
 		BufferedReader reader = new BufferedReader(streamReader);
@@ -73,6 +110,21 @@ public class Main implements Recorder {
 		case "record":
 			setRecording(parts[1]);
 			break;
+		case "recordfile":
+			setRecordFile(parts[1]);
+			break;
+		case "profile":
+			setProfile(parts[1]);
+			break;
+		case "jit":
+			setJit(parts[1]);
+			break;
+		case "rays":
+			setRays(parts[1]);
+			break;
+		case "marks":
+			setMarks(parts[1]);
+			break;
 		default:
 			throw new IllegalArgumentException("Unknown command " + command);
 		}
@@ -84,12 +136,83 @@ public class Main implements Recorder {
 	
 	public void setSeed(String seed) {
 		world = new World(Integer.parseInt(seed));
+		applySettings();
+	}
+	
+	public void setRays(String mode) {
+		switch (mode.toLowerCase()) {
+		case "exact":
+			exactRays = true;
+			break;
+		case "sampled":
+			exactRays = false;
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown ray mode " + mode);
+		}
+		
+		applySettings();
+	}
+	
+	public void setMarks(String capacity) {
+		markCapacity = Integer.parseInt(capacity);
+		applySettings();
+	}
+	
+	/**
+	 * Settings can come before or after the seed, so they are kept here and
+	 * handed to each world the seed creates.
+	 */
+	protected void applySettings() {
+		if (world == null) {
+			return;
+		}
+		
+		world.setExactRays(exactRays);
+		
+		if (markCapacity >= 0) {
+			world.getMarks().capacity = markCapacity;
+		}
 	}
 	
 	public void setRecording(String enabled) {
 		recording = Integer.parseInt(enabled) > 0;
 	}
 	
+	/**
+	 * Runs the bots added after this on JitVM. Recorded bots always run on
+	 * the recording VM.
+	 */
+	public void setJit(String enabled) {
+		jit = Integer.parseInt(enabled) > 0;
+	}
+	
+	public void setRecordFile(String path) {
+		try {
+			recorder = new BinaryRecorder(Paths.get(path));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		
+		recording = true;
+	}
+	
+	/**
+	 * Profiles the bots added after this and writes their flat profiles to
+	 * the path at the end of the run, or to the output when it is "-".
+	 */
+	public void setProfile(String path) {
+		profilePath = path;
+	}
+	
+	protected Recorder getRecorder() {
+		if (recorder == null) {
+			recorder = new TextRecorder(out);
+		}
+		
+		return recorder;
+	}
+	
 	public void addBot(String id, String encoded) {
 		addBot(Integer.parseInt(id), encoded);
 	}
@@ -103,9 +226,15 @@ public class Main implements Recorder {
 		Robot robot;
 		
 		if (recording) {
-			robot = new RecordedRobot(this, id, rom);
+			robot = new RecordedRobot(getRecorder(), id, rom);
 		} else {
-			robot = new Robot(id, new VM(rom));
+			robot = new Robot(id, jit ? new JitVM(rom) : new VM(rom));
+		}
+		
+		if (profilePath != null) {
+			Profile profile = new Profile();
+			robot.getVM().setProfile(profile);
+			profiles.put(id, profile);
 		}
 		
 		world.addRobot(robot);
@@ -115,10 +244,49 @@ public class Main implements Recorder {
 		for (int i=0; i < frames; i++) {
 			world.tick();
 		}
+		
+		close();
+		
+		if (profilePath != null) {
+			writeProfiles();
+		}
+	}
+	
+	/**
+	 * Finishes the recording, if any. Called at the end of run() and safe to
+	 * call again when a run fails partway.
+	 */
+	public void close() {
+		if (recorder == null) {
+			return;
+		}
+		
+		try {
+			recorder.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			recorder = null;
+		}
+	}
+	
+	protected void writeProfiles() {
+		if (profilePath.equals("-")) {
+			writeProfiles(out);
+			return;
+		}
+		
+		try (PrintStream stream = new PrintStream(new FileOutputStream(profilePath), false, "US-ASCII")) {
+			writeProfiles(stream);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
 	}
 	
-	public void record(RecordedRobot robot, byte[] data) {
-		String encoded = Base64.getEncoder().encodeToString(data);
-		System.out.printf("io %d %d %s%n", world.getFrame(), robot.id, encoded);
+	protected void writeProfiles(PrintStream stream) {
+		for (Map.Entry<Integer, Profile> entry : profiles.entrySet()) {
+			stream.printf("bot %d%n", entry.getKey());
+			entry.getValue().write(stream);
+		}
 	}
 }
@@ -0,0 +1,194 @@
+package asmcup.runtime;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Holds the four bytes robots mark on tiles, packed into an int per tile
+ * in an open addressing table keyed by tile. Marking never allocates once
+ * the table has grown to fit.
+ *
+ * At most capacity tiles keep their marks. Marking a new tile past that
+ * forgets the quarter of the marked tiles that were written longest ago,
+ * so trails fade oldest first and memory stays bounded in long matches.
+ */
+public class MarkStore {
+	public int capacity = 1 << 16;
+	protected int[] keys;
+	protected int[] values;
+	// Frame each tile was last marked in
+	protected int[] written;
+	protected int size;
+
+	public MarkStore() {
+		allocate(16);
+	}
+
+	protected void allocate(int length) {
+		keys = new int[length];
+		values = new int[length];
+		written = new int[length];
+		Arrays.fill(keys, EMPTY);
+		size = 0;
+	}
+
+	/**
+	 * Returns the packed bytes marked on the tile, 0 when it has none.
+	 */
+	public int get(int key) {
+		int i = find(key);
+		return (keys[i] == EMPTY) ? 0 : values[i];
+	}
+
+	public int read(int key, int offset) {
+		return (byte)(get(key) >>> ((offset & 0b11) * 8));
+	}
+
+	public void write(int key, int offset, int value, int frame) {
+		int i = find(key);
+
+		if (keys[i] == EMPTY) {
+			if (size >= StrictMath.max(1, capacity)) {
+				evict();
+			}
+
+			if ((size + 1) * 2 > keys.length) {
+				rehash(keys.length * 2);
+			}
+
+			i = find(key);
+			keys[i] = key;
+			values[i] = 0;
+			size++;
+		}
+
+		int shift = (offset & 0b11) * 8;
+		values[i] = (values[i] & ~(0xFF << shift)) | ((value & 0xFF) << shift);
+		written[i] = frame;
+	}
+
+	protected int find(int key) {
+		int mask = keys.length - 1;
+		int i = hash(key) & mask;
+
+		while (keys[i] != EMPTY && keys[i] != key) {
+			i = (i + 1) & mask;
+		}
+
+		return i;
+	}
+
+	protected static int hash(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Forgets the quarter of the tiles marked longest ago, at least one.
+	 * Tiles marked in the same frame go lowest key first, so exactly that
+	 * many are forgotten whatever order they were marked in.
+	 */
+	protected void evict() {
+		long[] ages = new long[size];
+		int n = 0;
+
+		for (int i=0; i < keys.length; i++) {
+			if (keys[i] != EMPTY) {
+				ages[n++] = age(written[i], keys[i]);
+			}
+		}
+
+		Arrays.sort(ages);
+		long oldest = ages[StrictMath.max(1, size / 4) - 1];
+
+		for (int i=0; i < keys.length; i++) {
+			if (keys[i] != EMPTY && age(written[i], keys[i]) <= oldest) {
+				keys[i] = EVICTED;
+			}
+		}
+
+		rehash(keys.length);
+	}
+
+	// Orders by frame, then by key, which is never negative
+	protected static long age(int frame, int key) {
+		return ((long)frame << 32) | key;
+	}
+
+	protected void rehash(int length) {
+		int[] oldKeys = keys, oldValues = values, oldWritten = written;
+		allocate(length);
+
+		for (int i=0; i < oldKeys.length; i++) {
+			if (oldKeys[i] >= 0) {
+				int j = find(oldKeys[i]);
+				keys[j] = oldKeys[i];
+				values[j] = oldValues[i];
+				written[j] = oldWritten[i];
+				size++;
+			}
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Bytes used by the table, for keeping an eye on long matches.
+	 */
+	public long getMemoryUsage() {
+		return keys.length * 12L;
+	}
+
+	public void clear() {
+		allocate(16);
+	}
+
+	public void save(DataOutputStream stream) throws IOException {
+		ArrayList<Integer> slots = new ArrayList<>(size);
+
+		for (int i=0; i < keys.length; i++) {
+			if (keys[i] != EMPTY) {
+				slots.add(i);
+			}
+		}
+
+		// Written by tile so equal stores save equal bytes
+		slots.sort((a, b) -> Integer.compare(keys[a], keys[b]));
+		stream.writeInt(capacity);
+		stream.writeInt(slots.size());
+
+		for (int i : slots) {
+			stream.writeInt(keys[i]);
+			stream.writeInt(values[i]);
+			stream.writeInt(written[i]);
+		}
+	}
+
+	public void load(DataInputStream stream) throws IOException {
+		capacity = stream.readInt();
+		int count = stream.readInt();
+		clear();
+
+		for (int n=0; n < count; n++) {
+			int key = stream.readInt();
+			int value = stream.readInt();
+			int frame = stream.readInt();
+
+			if ((size + 1) * 2 > keys.length) {
+				rehash(keys.length * 2);
+			}
+
+			int i = find(key);
+			keys[i] = key;
+			values[i] = value;
+			written[i] = frame;
+			size++;
+		}
+	}
+
+	// Tile keys are never negative
+	protected static final int EMPTY = -1;
+	protected static final int EVICTED = -2;
+}
@@ -5,16 +5,30 @@ import java.util.HashMap;
 public class PlaybackRobot extends Robot {
 	protected final PlaybackVM vm;
 	protected final HashMap<Integer, byte[]> frames;
+	protected final ReplayIndex.Track track;
 	
 	public PlaybackRobot(int id, PlaybackVM vm) {
 		super(id, vm);
 		this.vm = vm;
 		this.frames = new HashMap<>();
+		this.track = null;
+	}
+	
+	public PlaybackRobot(int id, ReplayIndex replay) {
+		super(id, new PlaybackVM());
+		this.vm = (PlaybackVM)getVM();
+		this.frames = new HashMap<>();
+		this.track = replay.getTrack(id);
 	}
 	
 	@Override
 	public void tick(World world) {
-		vm.data = frames.get(world.getFrame());
+		if (track != null) {
+			track.play(vm, world.getFrame());
+		} else {
+			vm.play(frames.get(world.getFrame()));
+		}
+		
 		super.tick(world);
 	}
 }
@@ -1,9 +1,27 @@
 package asmcup.runtime;
 
+import java.nio.ByteBuffer;
+
 import asmcup.vm.VM;
 
 public class PlaybackVM extends VM {
-	protected byte[] data = {};
+	// io bytes for the current frame, null when the robot did no io
+	protected ByteBuffer data;
+	protected int offset, length;
+	
+	public void play(byte[] bytes) {
+		if (bytes == null) {
+			play(null, 0, 0);
+		} else {
+			play(ByteBuffer.wrap(bytes), 0, bytes.length);
+		}
+	}
+	
+	public void play(ByteBuffer buffer, int offset, int length) {
+		this.data = buffer;
+		this.offset = offset;
+		this.length = length;
+	}
 	
 	@Override
 	public void tick() {
@@ -12,10 +30,10 @@ public class PlaybackVM extends VM {
 			return;
 		}
 		
-		setIO(data.length > 0);
+		setIO(length > 0);
 		
-		for (int i=0 ; i < data.length; i++) {
-			push8(data[i]);
+		for (int i=0 ; i < length; i++) {
+			push8(data.get(offset + i));
 		}
 	}
 }
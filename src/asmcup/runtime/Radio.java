@@ -0,0 +1,180 @@
+package asmcup.runtime;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Carries radio messages between robots. Messages sent during a frame are
+ * collected and only delivered when the frame ends, so every robot hears
+ * the same messages no matter in which order the robots tick.
+ *
+ * Delivered messages are bucketed by frequency and by the cell the sender
+ * was in. A robot reading its radio looks at the buckets for its frequency
+ * in the cells around it only, so a frame costs time in proportion to the
+ * messages sent instead of to every pair of robots.
+ */
+public class Radio {
+	// Sent this frame, in the order the robots sent them
+	protected final ArrayList<Message> sending = new ArrayList<>();
+	// Sent last frame, in the order they are heard
+	protected final ArrayList<Message> delivered = new ArrayList<>();
+	protected final HashMap<Long, ArrayList<Message>> buckets = new HashMap<>();
+	// What each robot has heard so far this frame
+	protected final IdentityHashMap<Robot, Inbox> inboxes = new IdentityHashMap<>();
+
+	public void send(Robot robot, float frequency, int data) {
+		sending.add(new Message(robot.id, robot.getX(), robot.getY(), frequency, data));
+	}
+
+	/**
+	 * Returns the next message the robot hears on the frequency this frame,
+	 * or 0 when there are none left. Retuning starts over on the new
+	 * frequency.
+	 */
+	public int recv(Robot robot, float frequency) {
+		Inbox inbox = inboxes.get(robot);
+
+		if (inbox == null || Float.compare(inbox.frequency, frequency + 0.0f) != 0) {
+			inbox = listen(robot, frequency);
+			inboxes.put(robot, inbox);
+		}
+
+		if (inbox.read >= inbox.messages.length) {
+			return 0;
+		}
+
+		return inbox.messages[inbox.read++].data;
+	}
+
+	protected Inbox listen(Robot robot, float frequency) {
+		ArrayList<Message> heard = new ArrayList<>();
+		float x = robot.getX(), y = robot.getY();
+		int cellX = (int)(x / World.CELL_SIZE);
+		int cellY = (int)(y / World.CELL_SIZE);
+
+		for (int row = cellY - 1; row <= cellY + 1; row++) {
+			for (int col = cellX - 1; col <= cellX + 1; col++) {
+				if (row < 0 || col < 0 || row > World.CELL_COUNT || col > World.CELL_COUNT) {
+					continue;
+				}
+
+				ArrayList<Message> bucket = buckets.get(key(frequency, col, row));
+
+				if (bucket == null) {
+					continue;
+				}
+
+				for (Message message : bucket) {
+					if (message.sender != robot.id && message.inRange(x, y)) {
+						heard.add(message);
+					}
+				}
+			}
+		}
+
+		heard.sort((a, b) -> Integer.compare(a.order, b.order));
+		return new Inbox(frequency + 0.0f, heard.toArray(new Message[heard.size()]));
+	}
+
+	/**
+	 * Delivers what was sent this frame, replacing what was sent last frame.
+	 * Messages are heard by sender id and then in the order each robot sent
+	 * them. Robots sharing an id are told apart by their position.
+	 */
+	public void deliver() {
+		// List.sort is stable, keeping each robot's messages in order
+		sending.sort(Comparator.<Message>comparingInt(m -> m.sender)
+				.thenComparing(m -> m.x)
+				.thenComparing(m -> m.y));
+
+		delivered.clear();
+		delivered.addAll(sending);
+		sending.clear();
+		index();
+	}
+
+	protected void index() {
+		buckets.clear();
+		inboxes.clear();
+
+		for (int i=0; i < delivered.size(); i++) {
+			Message message = delivered.get(i);
+			message.order = i;
+			buckets.computeIfAbsent(message.key(), k -> new ArrayList<>()).add(message);
+		}
+	}
+
+	public int getDeliveredCount() {
+		return delivered.size();
+	}
+
+	public void save(DataOutputStream stream) throws IOException {
+		stream.writeInt(delivered.size());
+
+		for (Message message : delivered) {
+			stream.writeInt(message.sender);
+			stream.writeFloat(message.x);
+			stream.writeFloat(message.y);
+			stream.writeFloat(message.frequency);
+			stream.writeByte(message.data);
+		}
+	}
+
+	public void load(DataInputStream stream) throws IOException {
+		int count = stream.readInt();
+		delivered.clear();
+
+		for (int i=0; i < count; i++) {
+			int sender = stream.readInt();
+			float x = stream.readFloat();
+			float y = stream.readFloat();
+			float frequency = stream.readFloat();
+			delivered.add(new Message(sender, x, y, frequency, stream.readUnsignedByte()));
+		}
+
+		index();
+	}
+
+	protected static long key(float frequency, int cellX, int cellY) {
+		// Adding zero turns -0.0 into 0.0 so both are the same frequency
+		long bits = Float.floatToIntBits(frequency + 0.0f);
+		return (bits << 32) | (cellY << 16) | cellX;
+	}
+
+	protected static class Message {
+		final int sender;
+		final float x, y;
+		final float frequency;
+		final int data;
+		int order;
+
+		Message(int sender, float x, float y, float frequency, int data) {
+			this.sender = sender;
+			this.x = x;
+			this.y = y;
+			this.frequency = frequency + 0.0f;
+			this.data = data & 0xFF;
+		}
+
+		long key() {
+			return Radio.key(frequency, Cell.clampCell((int)(x / World.CELL_SIZE)),
+			                 Cell.clampCell((int)(y / World.CELL_SIZE)));
+		}
+
+		boolean inRange(float rx, float ry) {
+			float dx = rx - x, dy = ry - y;
+			return dx * dx + dy * dy <= Robot.RADIO_RANGE * Robot.RADIO_RANGE;
+		}
+	}
+
+	protected static class Inbox {
+		final float frequency;
+		final Message[] messages;
+		int read;
+
+		Inbox(float frequency, Message[] messages) {
+			this.frequency = frequency;
+			this.messages = messages;
+		}
+	}
+}
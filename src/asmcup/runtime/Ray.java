@@ -0,0 +1,189 @@
+package asmcup.runtime;
+
+/**
+ * Walks the tiles a ray passes through in the order it passes through them,
+ * visiting each tile once, and measures how far along the ray items and
+ * robots are. Used instead of fixed samples in worlds with exact rays.
+ */
+public class Ray {
+	protected final float x, y, cos, sin;
+	protected final float range;
+	protected int col, row;
+	protected final int stepCol, stepRow;
+	// Distance to the next column and row edge, and between two edges
+	protected float nextCol, nextRow;
+	protected final float deltaCol, deltaRow;
+	protected float enter, exit;
+	protected boolean started;
+
+	public Ray(float x, float y, float cos, float sin, float range) {
+		this.x = x;
+		this.y = y;
+		this.cos = cos;
+		this.sin = sin;
+		this.range = range;
+		this.col = (int)StrictMath.floor(x / World.TILE_SIZE);
+		this.row = (int)StrictMath.floor(y / World.TILE_SIZE);
+
+		if (cos > 0) {
+			stepCol = 1;
+			deltaCol = World.TILE_SIZE / cos;
+			nextCol = ((col + 1) * World.TILE_SIZE - x) / cos;
+		} else if (cos < 0) {
+			stepCol = -1;
+			deltaCol = World.TILE_SIZE / -cos;
+			nextCol = (col * World.TILE_SIZE - x) / cos;
+		} else {
+			stepCol = 0;
+			deltaCol = Float.POSITIVE_INFINITY;
+			nextCol = Float.POSITIVE_INFINITY;
+		}
+
+		if (sin > 0) {
+			stepRow = 1;
+			deltaRow = World.TILE_SIZE / sin;
+			nextRow = ((row + 1) * World.TILE_SIZE - y) / sin;
+		} else if (sin < 0) {
+			stepRow = -1;
+			deltaRow = World.TILE_SIZE / -sin;
+			nextRow = (row * World.TILE_SIZE - y) / sin;
+		} else {
+			stepRow = 0;
+			deltaRow = Float.POSITIVE_INFINITY;
+			nextRow = Float.POSITIVE_INFINITY;
+		}
+	}
+
+	/**
+	 * Moves on to the next tile, returns false once the ray is out of range.
+	 */
+	public boolean next() {
+		if (!started) {
+			started = true;
+			enter = 0;
+			exit = StrictMath.min(nextCol, nextRow);
+			return range > 0;
+		}
+
+		if (exit >= range) {
+			return false;
+		}
+
+		enter = exit;
+
+		if (nextCol < nextRow) {
+			col += stepCol;
+			nextCol += deltaCol;
+		} else {
+			row += stepRow;
+			nextRow += deltaRow;
+		}
+
+		exit = StrictMath.min(nextCol, nextRow);
+		return true;
+	}
+
+	public int getColumn() {
+		return col;
+	}
+
+	public int getRow() {
+		return row;
+	}
+
+	/**
+	 * Distance at which the ray enters the current tile.
+	 */
+	public float getEnter() {
+		return enter;
+	}
+
+	public float getExit() {
+		return exit;
+	}
+
+	/**
+	 * Distance at which the ray first touches the circle, which is zero when
+	 * the ray starts inside it, or infinity when the ray misses it.
+	 */
+	public float toCircle(float cx, float cy, float radius) {
+		float dx = cx - x;
+		float dy = cy - y;
+		float along = dx * cos + dy * sin;
+		float squared = dx * dx + dy * dy;
+		float apart = squared - along * along;
+
+		if (squared <= radius * radius) {
+			return 0;
+		}
+
+		if (along < 0 || apart > radius * radius) {
+			return Float.POSITIVE_INFINITY;
+		}
+
+		return along - (float)StrictMath.sqrt(radius * radius - apart);
+	}
+
+	/**
+	 * Distance of the first point at or past {@code from} inside the circle.
+	 */
+	public float toCircle(float cx, float cy, float radius, float from) {
+		float near = toCircle(cx, cy, radius);
+
+		if (near >= from) {
+			return near;
+		}
+
+		float dx = x + cos * from - cx;
+		float dy = y + sin * from - cy;
+		return (dx * dx + dy * dy <= radius * radius) ? from : Float.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Distance at which the ray enters the open square of half size
+	 * {@code half}, the same area {@link RobotStore#find} looks at.
+	 */
+	public float toBox(float cx, float cy, float half) {
+		float near = 0;
+		float far = Float.POSITIVE_INFINITY;
+
+		if (cos == 0) {
+			if (StrictMath.abs(x - cx) >= half) {
+				return Float.POSITIVE_INFINITY;
+			}
+		} else {
+			float a = (cx - half - x) / cos;
+			float b = (cx + half - x) / cos;
+			near = StrictMath.max(near, StrictMath.min(a, b));
+			far = StrictMath.min(far, StrictMath.max(a, b));
+		}
+
+		if (sin == 0) {
+			if (StrictMath.abs(y - cy) >= half) {
+				return Float.POSITIVE_INFINITY;
+			}
+		} else {
+			float a = (cy - half - y) / sin;
+			float b = (cy + half - y) / sin;
+			near = StrictMath.max(near, StrictMath.min(a, b));
+			far = StrictMath.min(far, StrictMath.max(a, b));
+		}
+
+		return (near < far) ? near : Float.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Distance of the first point at or past {@code from} inside the square.
+	 */
+	public float toBox(float cx, float cy, float half, float from) {
+		float near = toBox(cx, cy, half);
+
+		if (near >= from) {
+			return near;
+		}
+
+		float dx = StrictMath.abs(x + cos * from - cx);
+		float dy = StrictMath.abs(y + sin * from - cy);
+		return (dx < half && dy < half) ? from : Float.POSITIVE_INFINITY;
+	}
+}
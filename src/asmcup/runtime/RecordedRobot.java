@@ -26,7 +26,7 @@ public class RecordedRobot extends Robot {
 		super.tick(world);
 		
 		if (vm.hasRecordedIO()) {
-			recorder.record(this, vm.getRecordedIO());
+			recorder.record(world.getFrame(), this, vm.getRecordedIO());
 		}
 	}
 }
\ No newline at end of file
@@ -1,5 +1,12 @@
 package asmcup.runtime;
 
-public interface Recorder {
-	public void record(RecordedRobot robot, byte[] data);
+import java.io.Closeable;
+import java.io.IOException;
+
+public interface Recorder extends Closeable {
+	public void record(int frame, RecordedRobot robot, byte[] data);
+	
+	@Override
+	public default void close() throws IOException {
+	}
 }
@@ -0,0 +1,151 @@
+package asmcup.runtime;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Memory-maps a recording written by {@link BinaryRecorder} and indexes where
+ * each robot's io is stored, so a match can be replayed or scrubbed without
+ * reading the io onto the heap. The index keeps two ints per event.
+ */
+public class ReplayIndex {
+	protected final ByteBuffer buffer;
+	protected final HashMap<Integer, Track> tracks = new HashMap<>();
+	protected int lastFrame;
+
+	public ReplayIndex(ByteBuffer buffer) {
+		this.buffer = buffer;
+		scan();
+	}
+
+	public static ReplayIndex open(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("Recording is larger than 2GB");
+			}
+
+			// The mapping stays valid after the channel is closed
+			return new ReplayIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	protected void scan() {
+		ByteBuffer view = buffer.duplicate();
+		BinaryRecorder.readHeader(view);
+		int frame = 0;
+
+		while (view.hasRemaining()) {
+			frame += BinaryRecorder.getVarint(view);
+			int zigzag = BinaryRecorder.getVarint(view);
+			int id = (zigzag >>> 1) ^ -(zigzag & 1);
+			int offset = view.position();
+			int length = BinaryRecorder.getVarint(view);
+
+			if (length > view.remaining()) {
+				throw new IllegalArgumentException("Recording is truncated");
+			}
+
+			view.position(view.position() + length);
+
+			Track track = tracks.get(id);
+
+			if (track == null) {
+				track = new Track(buffer.duplicate());
+				tracks.put(id, track);
+			}
+
+			track.add(frame, offset);
+			lastFrame = frame;
+		}
+	}
+
+	public int getLastFrame() {
+		return lastFrame;
+	}
+
+	public int[] getRobotIds() {
+		int[] ids = new int[tracks.size()];
+		int i = 0;
+
+		for (int id : tracks.keySet()) {
+			ids[i++] = id;
+		}
+
+		Arrays.sort(ids);
+		return ids;
+	}
+
+	/**
+	 * Returns the io of one robot, or null if it never did any.
+	 */
+	public Track getTrack(int id) {
+		return tracks.get(id);
+	}
+
+	public static class Track {
+		protected final ByteBuffer view;
+		protected int[] frames = new int[16];
+		// Position of each event's length varint, the io bytes follow it
+		protected int[] offsets = new int[16];
+		protected int count;
+
+		protected Track(ByteBuffer view) {
+			this.view = view;
+		}
+
+		protected void add(int frame, int offset) {
+			if (count == frames.length) {
+				frames = Arrays.copyOf(frames, count * 2);
+				offsets = Arrays.copyOf(offsets, count * 2);
+			}
+
+			frames[count] = frame;
+			offsets[count] = offset;
+			count++;
+		}
+
+		public int size() {
+			return count;
+		}
+
+		/**
+		 * Returns the index of the event recorded on the frame, or -1.
+		 */
+		public int find(int frame) {
+			int i = Arrays.binarySearch(frames, 0, count, frame);
+			return (i < 0) ? -1 : i;
+		}
+
+		/**
+		 * Hands the io recorded on the frame, if any, to the VM.
+		 */
+		public void play(PlaybackVM vm, int frame) {
+			int i = find(frame);
+
+			if (i < 0) {
+				vm.play(null, 0, 0);
+				return;
+			}
+
+			view.position(offsets[i]);
+			int length = BinaryRecorder.getVarint(view);
+			vm.play(view, view.position(), length);
+		}
+
+		public byte[] get(int frame) {
+			int i = find(frame);
+
+			if (i < 0) {
+				return null;
+			}
+
+			view.position(offsets[i]);
+			byte[] data = new byte[BinaryRecorder.getVarint(view)];
+			view.get(data);
+			return data;
+		}
+	}
+}
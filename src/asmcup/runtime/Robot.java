@@ -1,14 +1,16 @@
 package asmcup.runtime;
 
+import java.io.*;
+
 import asmcup.vm.VM;
 
 public class Robot {
 	protected final int id;
 	protected VM vm;
-	protected float x, y;
-	protected float facing;
+	// Position, facing and battery live in a slot of the store
+	protected RobotStore store;
+	protected int slot;
 	protected int overclock;
-	protected int battery;
 	protected float motor;
 	protected float steer;
 	protected float lazer;
@@ -34,7 +36,60 @@ public class Robot {
 	public Robot(int id, VM vm) {
 		this.id = id;
 		this.vm = vm;
-		this.battery = BATTERY_MAX;
+		new RobotStore(1).add(this);
+		store.battery[slot] = BATTERY_MAX;
+	}
+	
+	/**
+	 * Restores a robot written by {@link #save(DataOutputStream)}. Only the
+	 * state of the base class is saved, so the result is always a plain Robot.
+	 */
+	public Robot(DataInputStream stream) throws IOException {
+		this(stream.readInt(), new VM(stream));
+		position(stream.readFloat(), stream.readFloat());
+		lastX = stream.readFloat();
+		lastY = stream.readFloat();
+		setFacing(stream.readFloat());
+		setBattery(stream.readInt());
+		overclock = stream.readInt();
+		motor = stream.readFloat();
+		steer = stream.readFloat();
+		lazer = stream.readFloat();
+		lazerEnd = stream.readFloat();
+		frequency = stream.readFloat();
+		gold = stream.readInt();
+		sensor = stream.readFloat();
+		beamDirection = stream.readFloat();
+		sensorIgnore = stream.readInt();
+		sensorFrame = stream.readInt();
+		ramming = stream.readBoolean();
+		lastValidIO = stream.readInt();
+		lastInvalidIO = stream.readInt();
+	}
+	
+	public void save(DataOutputStream stream) throws IOException {
+		stream.writeInt(id);
+		vm.save(stream);
+		stream.writeFloat(getX());
+		stream.writeFloat(getY());
+		stream.writeFloat(lastX);
+		stream.writeFloat(lastY);
+		stream.writeFloat(getFacing());
+		stream.writeInt(getBattery());
+		stream.writeInt(overclock);
+		stream.writeFloat(motor);
+		stream.writeFloat(steer);
+		stream.writeFloat(lazer);
+		stream.writeFloat(lazerEnd);
+		stream.writeFloat(frequency);
+		stream.writeInt(gold);
+		stream.writeFloat(sensor);
+		stream.writeFloat(beamDirection);
+		stream.writeInt(sensorIgnore);
+		stream.writeInt(sensorFrame);
+		stream.writeBoolean(ramming);
+		stream.writeInt(lastValidIO);
+		stream.writeInt(lastInvalidIO);
 	}
 	
 	public VM getVM() {
@@ -42,19 +97,19 @@ public class Robot {
 	}
 	
 	public float getX() {
-		return x;
+		return store.x[slot];
 	}
 	
 	public float getY() {
-		return y;
+		return store.y[slot];
 	}
 	
 	public int getColumn() {
-		return (int)(x / World.TILE_SIZE);
+		return (int)(getX() / World.TILE_SIZE);
 	}
 	
 	public int getRow() {
-		return (int)(y / World.TILE_SIZE);
+		return (int)(getY() / World.TILE_SIZE);
 	}
 	
 	public int getCellX() {
@@ -70,7 +125,7 @@ public class Robot {
 	}
 	
 	public float getFacing() {
-		return facing;
+		return store.facing[slot];
 	}
 	
 	public float getMotor() {
@@ -82,7 +137,11 @@ public class Robot {
 	}
 	
 	public int getBattery() {
-		return battery;
+		return store.battery[slot];
+	}
+	
+	protected void setBattery(int battery) {
+		store.battery[slot] = battery;
 	}
 	
 	public int getOverclock() {
@@ -94,7 +153,7 @@ public class Robot {
 	}
 	
 	public float getBeamAngle() {
-		return (float)(facing + beamDirection * StrictMath.PI / 2);
+		return (float)(getFacing() + beamDirection * StrictMath.PI / 2);
 	}
 	
 	public int getSensorFrame() {
@@ -126,12 +185,11 @@ public class Robot {
 	}
 	
 	public void setFacing(float facing) {
-		this.facing = facing;
+		store.facing[slot] = facing;
 	}
 	
 	public void position(float x, float y) {
-		this.x = x;
-		this.y = y;
+		store.move(slot, x, y);
 		lastX = x;
 		lastY = y;
 	}
@@ -149,7 +207,7 @@ public class Robot {
 	}
 	
 	public void kill() {
-		battery = 0;
+		store.battery[slot] = 0;
 	}
 	
 	public void damage(int dmg) {
@@ -157,7 +215,7 @@ public class Robot {
 			throw new IllegalArgumentException("Damage cannot be negative");
 		}
 		
-		battery -= dmg;
+		store.battery[slot] -= dmg;
 	}
 	
 	public void addBattery(int charge) {
@@ -165,11 +223,11 @@ public class Robot {
 			throw new IllegalArgumentException("Recharge amount cannot be negative");
 		}
 		
-		battery += charge;
+		store.battery[slot] += charge;
 	}
 	
 	public boolean isDead() {
-		return battery <= 0;
+		return getBattery() <= 0;
 	}
 	
 	public int getGold() {
@@ -194,10 +252,14 @@ public class Robot {
 		int cyclesUsed = 0;
 		
 		while (cyclesUsed <= overclock) {
-			vm.tick();
+			int cycles = vm.run(overclock + 1 - cyclesUsed);
+			cyclesUsed += cycles;
+			
+			// The cycle doing the io is charged after it, like it used to be
+			// when every cycle was handled on its own
+			store.battery[slot] -= cycles - 1;
 			handleIO(world);
-			cyclesUsed++;
-			battery--;
+			store.battery[slot]--;
 		}
 	}
 	
@@ -212,7 +274,7 @@ public class Robot {
 			steer = 0.0f;
 		}
 		
-		facing += steer * STEER_RATE;
+		store.facing[slot] += steer * STEER_RATE;
 	}
 	
 	protected void tickMotor(World world) {
@@ -229,18 +291,19 @@ public class Robot {
 			s = motor * SPEED_MAX;
 		}
 		
-		float tx = x + (float)StrictMath.cos(facing) * s;
-		float ty = y + (float)StrictMath.sin(facing) * s;
+		float x = getX();
+		float y = getY();
+		float tx = x + (float)StrictMath.cos(getFacing()) * s;
+		float ty = y + (float)StrictMath.sin(getFacing()) * s;
 		
 		if (world.canRobotGoTo(tx, ty)) {
-			x = tx;
-			y = ty;
+			store.move(slot, tx, ty);
 			ramming = true;
 		} else if (world.canRobotGoTo(tx, y)) {
-			x = tx;
+			store.move(slot, tx, y);
 			ramming = true;
 		} else if (world.canRobotGoTo(x, ty)) {
-			y = ty;
+			store.move(slot, x, ty);
 			ramming = true;
 		} else {
 			ramming = false;
@@ -253,16 +316,23 @@ public class Robot {
 			return;
 		}
 		
+		float x = getX();
+		float y = getY();
 		float cos = (float)StrictMath.cos(getBeamAngle());
 		float sin = (float)StrictMath.sin(getBeamAngle());
 		
+		if (world.isExactRays()) {
+			tickLazerExact(world, cos, sin);
+			return;
+		}
+		
 		for (int i=0; i < RAY_STEPS; i++) {
 			if ((i * RAY_INTERVAL) >= (lazer * LAZER_RANGE)) {
 				lazerEnd = lazer * LAZER_RANGE;
 				return;
 			}
 			
-			battery -= LAZER_BATTERY_COST;
+			store.battery[slot] -= LAZER_BATTERY_COST;
 			
 			float tx = x + cos * (i * RAY_INTERVAL);
 			float ty = y + sin * (i * RAY_INTERVAL);
@@ -294,6 +364,61 @@ public class Robot {
 		lazerEnd = RAY_INTERVAL * RAY_STEPS;
 	}
 	
+	protected void tickLazerExact(World world, float cos, float sin) {
+		Ray ray = new Ray(getX(), getY(), cos, sin, lazer * LAZER_RANGE);
+		float end = lazer * LAZER_RANGE;
+		int target = -1;
+		boolean hit = false;
+		
+		// Walls win over robots at the same distance, like with samples
+		while (ray.next() && ray.getEnter() <= end) {
+			int tile = rayTile(world, ray);
+			int type = tile & TILE.TYPE_BITS;
+			
+			if (type == TILE.WALL || type == TILE.OBSTACLE) {
+				if (type == TILE.OBSTACLE && ((tile >> 3) & 0b11) >= 2) {
+					world.setTileXY(ray.getColumn() * World.TILE_SIZE + World.TILE_HALF,
+					                ray.getRow() * World.TILE_SIZE + World.TILE_HALF, TILE.GROUND);
+				}
+				
+				end = ray.getEnter();
+				target = -1;
+				hit = true;
+				break;
+			}
+			
+			int found = world.robots.findOnRay(ray, COLLIDE_RANGE, end, this);
+			
+			if (found >= 0) {
+				target = found;
+				end = ray.toBox(world.robots.x[found], world.robots.y[found], COLLIDE_RANGE);
+				hit = true;
+			}
+		}
+		
+		// Charged as many steps as sampling would have taken to get there
+		int steps = hit ? (int)(end / RAY_INTERVAL) + 1 : (int)StrictMath.ceil(end / RAY_INTERVAL);
+		store.battery[slot] -= LAZER_BATTERY_COST * StrictMath.min(steps, RAY_STEPS);
+		
+		if (target >= 0) {
+			world.robots.get(target).damage(LAZER_DAMAGE);
+		}
+		
+		lazerEnd = end;
+	}
+	
+	protected static int rayTile(World world, Ray ray) {
+		int col = ray.getColumn();
+		int row = ray.getRow();
+		int last = World.SIZE / World.TILE_SIZE;
+		
+		if (col < 0 || row < 0 || col >= last || row >= last) {
+			return TILE.WALL;
+		}
+		
+		return world.getTile(col, row);
+	}
+	
 	protected void handleIO(World world) {
 		if (!vm.checkIO()) {
 			return;
@@ -303,6 +428,10 @@ public class Robot {
 		
 		value = vm.pop8();
 		
+		if (vm.getProfile() != null) {
+			vm.getProfile().countIO(value);
+		}
+		
 		switch (value) {
 		case IO_MOTOR:
 			motor = popFloatSafe(-1.0f, 1.0f);
@@ -323,7 +452,7 @@ public class Robot {
 			lazer = popFloatSafe(0.0f, 1.0f);
 			break;
 		case IO_BATTERY:
-			vm.pushFloat((float)battery / BATTERY_MAX);
+			vm.pushFloat((float)getBattery() / BATTERY_MAX);
 			break;
 		case IO_MARK:
 			value = vm.pop8();
@@ -336,10 +465,10 @@ public class Robot {
 			vm.push8(value);
 			break;
 		case IO_ACCELEROMETER:
-			vm.pushFloat(x - lastX);
-			vm.pushFloat(y - lastY);
-			lastX = x;
-			lastY = y;
+			vm.pushFloat(getX() - lastX);
+			vm.pushFloat(getY() - lastY);
+			lastX = getX();
+			lastY = getY();
 			break;
 		case IO_RADIO:
 			frequency = popFloatSafe(-FREQUENCY_MAX, FREQUENCY_MAX);
@@ -351,7 +480,7 @@ public class Robot {
 			vm.push8(world.recv(this, frequency));
 			break;
 		case IO_COMPASS:
-			vm.pushFloat(floatModPositive(facing, (float)(StrictMath.PI * 2)));
+			vm.pushFloat(floatModPositive(getFacing(), (float)(StrictMath.PI * 2)));
 			break;
 		case IO_BEAM_DIRECTION:
 			beamDirection = popFloatSafe(-1.0f, 1.0f);
@@ -365,10 +494,17 @@ public class Robot {
 	}
 	
 	protected void sensorRay(World world) {
+		float x = getX();
+		float y = getY();
 		float cos = (float)StrictMath.cos(getBeamAngle());
 		float sin = (float)StrictMath.sin(getBeamAngle());
 		sensorFrame = world.getFrame();
 		
+		if (world.isExactRays()) {
+			sensorRayExact(world, cos, sin);
+			return;
+		}
+		
 		for (int i = 0; i < RAY_STEPS; i++) {
 			float sx = x + (cos * i * RAY_INTERVAL);
 			float sy = y + (sin * i * RAY_INTERVAL);
@@ -387,30 +523,79 @@ public class Robot {
 		vm.push8(0);
 	}
 	
-	protected int sensorPoint(World world, float sx, float sy) {
-		int tileVariation = world.getTileXY(sx, sy) & TILE.VARIATION_BITS;
-		// In the tile, variation is stored in the 4th and 5th bit.
-		// We need it at the 7th and 8th bit.
-		tileVariation = tileVariation << 3;
+	protected void sensorRayExact(World world, float cos, float sin) {
+		Ray ray = new Ray(getX(), getY(), cos, sin, RAY_RANGE);
+		float end = RAY_RANGE;
+		int hit = 0;
 		
-		if (world.checkTile(TILE.IS_WALL, sx, sy)) {
-			if ((sensorIgnore & SENSOR_WALL) == 0) {
-				return SENSOR_WALL | tileVariation;
-			} else {
-				return 0;
+		// Tiles win over items and robots at the same distance, like with samples
+		while (ray.next() && ray.getEnter() <= end) {
+			int tile = rayTile(world, ray);
+			int tileHit = sensorTile(tile);
+			
+			if (tileHit != 0) {
+				end = ray.getEnter();
+				hit = tileHit;
+				break;
 			}
-		}
-		
-		if ((sensorIgnore & SENSOR_HAZARD) == 0) {
-			if (world.checkTile(TILE.IS_HAZARD, sx, sy)) {
-				return SENSOR_HAZARD | tileVariation;
+			
+			// An ignored wall still hides whatever is in it
+			if (TILE.hasProperty(tile, TILE.PROP_WALL)) {
+				continue;
 			}
-		}
-
-		if ((sensorIgnore & SENSOR_OBSTACLE) == 0) {
-			if (world.checkTile(TILE.IS_OBSTACLE, sx, sy)) {
-				return SENSOR_OBSTACLE | tileVariation;
+			
+			// Only what the ray meets inside this tile, the rest is looked
+			// for again from the tiles further on
+			float enter = ray.getEnter();
+			float limit = StrictMath.min(end, ray.getExit());
+			
+			// Items touching this tile are centered at most one tile away
+			int col = ray.getColumn();
+			int row = ray.getRow();
+			
+			for (int cellY = Math.floorDiv(row - 1, World.TILES_PER_CELL); cellY <= Math.floorDiv(row + 1, World.TILES_PER_CELL); cellY++) {
+				for (int cellX = Math.floorDiv(col - 1, World.TILES_PER_CELL); cellX <= Math.floorDiv(col + 1, World.TILES_PER_CELL); cellX++) {
+					Cell cell = world.getCell(cellX, cellY);
+					
+					for (Item item : cell.getItems()) {
+						int type = (item instanceof Item.Gold) ? SENSOR_GOLD : SENSOR_BATTERY;
+						
+						if ((sensorIgnore & type) != 0) {
+							continue;
+						}
+						
+						float distance = ray.toCircle(item.getX(), item.getY(), Item.COLLECT_RANGE, enter);
+						
+						if (distance < limit) {
+							end = limit = distance;
+							hit = type;
+						}
+					}
+				}
 			}
+			
+			if ((sensorIgnore & SENSOR_ROBOT) == 0) {
+				int found = world.robots.findOnRay(ray, COLLIDE_RANGE, enter, limit, this);
+				
+				if (found >= 0) {
+					end = ray.toBox(world.robots.x[found], world.robots.y[found], COLLIDE_RANGE, enter);
+					hit = SENSOR_ROBOT;
+				}
+			}
+		}
+		
+		sensor = end;
+		vm.pushFloat(sensor);
+		vm.push8(hit);
+	}
+	
+	protected int sensorPoint(World world, float sx, float sy) {
+		int tile = world.getTileXY(sx, sy);
+		int hit = sensorTile(tile);
+		
+		// An ignored wall still hides whatever is in it
+		if (hit != 0 || TILE.hasProperty(tile, TILE.PROP_WALL)) {
+			return hit;
 		}
 		
 		Item item = world.getItem(sx, sy);
@@ -439,6 +624,34 @@ public class Robot {
 		return 0;
 	}
 	
+	protected int sensorTile(int tile) {
+		int props = TILE.properties(tile);
+		int tileVariation = tile & TILE.VARIATION_BITS;
+		// In the tile, variation is stored in the 4th and 5th bit.
+		// We need it at the 7th and 8th bit.
+		tileVariation = tileVariation << 3;
+		
+		if ((sensorIgnore & SENSOR_WALL) == 0) {
+			if ((props & TILE.PROP_WALL) != 0) {
+				return SENSOR_WALL | tileVariation;
+			}
+		}
+		
+		if ((sensorIgnore & SENSOR_HAZARD) == 0) {
+			if ((props & TILE.PROP_HAZARD) != 0) {
+				return SENSOR_HAZARD | tileVariation;
+			}
+		}
+
+		if ((sensorIgnore & SENSOR_OBSTACLE) == 0) {
+			if ((props & TILE.PROP_OBSTACLE) != 0) {
+				return SENSOR_OBSTACLE | tileVariation;
+			}
+		}
+		
+		return 0;
+	}
+	
 	protected float popFloatSafe(float min, float max) {
 		return clampSafe(vm.popFloat(), min, max);
 	}
@@ -482,6 +695,7 @@ public class Robot {
 	public static final int BATTERY_MAX = 60 * 60 * 24;
 	public static final int OVERCLOCK_MAX = 100;
 	public static final float FREQUENCY_MAX = 1000 * 10;
+	public static final int RADIO_RANGE = World.CELL_SIZE;
 	public static final int LAZER_RANGE = 100;
 	public static final int LAZER_BATTERY_COST = 4;
 	public static final int LAZER_DAMAGE = 1024;
@@ -0,0 +1,289 @@
+package asmcup.runtime;
+
+import java.util.*;
+
+/**
+ * Keeps the robot state read every frame in parallel primitive arrays, one
+ * slot per robot. A robot reads and writes its position, facing and battery
+ * through its slot, so scanning a world with thousands of bots walks a few
+ * contiguous arrays instead of every Robot object.
+ *
+ * Positions are also indexed in a spatial hash of GRID_SIZE squares, which
+ * lets {@link #find(float, float, float)} look at nearby robots only.
+ */
+public class RobotStore implements Iterable<Robot> {
+	protected Robot[] robots;
+	protected float[] x, y;
+	protected float[] facing;
+	protected int[] battery;
+	protected int size;
+
+	// Hash bucket of each slot and the next slot in the same bucket
+	protected int[] bucket, next;
+	// First slot in each bucket, -1 when empty
+	protected int[] heads;
+
+	public RobotStore() {
+		this(16);
+	}
+
+	public RobotStore(int capacity) {
+		capacity = StrictMath.max(1, capacity);
+		robots = new Robot[capacity];
+		x = new float[capacity];
+		y = new float[capacity];
+		facing = new float[capacity];
+		battery = new int[capacity];
+		bucket = new int[capacity];
+		next = new int[capacity];
+		heads = new int[tableSize(capacity)];
+		Arrays.fill(heads, -1);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public Robot get(int slot) {
+		if (slot < 0 || slot >= size) {
+			throw new IndexOutOfBoundsException("No robot in slot " + slot);
+		}
+
+		return robots[slot];
+	}
+
+	public boolean contains(Robot robot) {
+		return robot.store == this;
+	}
+
+	/**
+	 * Moves the robot's state into a new slot at the end of this store,
+	 * taking it out of whichever store held it before. Adding a robot that
+	 * is already here does nothing.
+	 */
+	public void add(Robot robot) {
+		if (contains(robot)) {
+			return;
+		}
+
+		if (size == robots.length) {
+			grow(size * 2);
+		}
+
+		int slot = size++;
+		RobotStore old = robot.store;
+
+		if (old != null) {
+			x[slot] = old.x[robot.slot];
+			y[slot] = old.y[robot.slot];
+			facing[slot] = old.facing[robot.slot];
+			battery[slot] = old.battery[robot.slot];
+			old.remove(robot.slot);
+		}
+
+		robots[slot] = robot;
+		robot.store = this;
+		robot.slot = slot;
+		link(slot);
+	}
+
+	/**
+	 * Takes the robot out of this store. It keeps its state in a store of its
+	 * own, so it can still be used or added to another world.
+	 */
+	public boolean remove(Robot robot) {
+		if (!contains(robot)) {
+			return false;
+		}
+
+		new RobotStore(1).add(robot);
+		return true;
+	}
+
+	protected void remove(int slot) {
+		// Shift rather than swap with the last slot, robots tick in the order
+		// they were added
+		int count = size - slot - 1;
+		System.arraycopy(robots, slot + 1, robots, slot, count);
+		System.arraycopy(x, slot + 1, x, slot, count);
+		System.arraycopy(y, slot + 1, y, slot, count);
+		System.arraycopy(facing, slot + 1, facing, slot, count);
+		System.arraycopy(battery, slot + 1, battery, slot, count);
+		size--;
+		robots[size] = null;
+
+		for (int i=slot; i < size; i++) {
+			robots[i].slot = i;
+		}
+
+		reindex();
+	}
+
+	protected void grow(int capacity) {
+		robots = Arrays.copyOf(robots, capacity);
+		x = Arrays.copyOf(x, capacity);
+		y = Arrays.copyOf(y, capacity);
+		facing = Arrays.copyOf(facing, capacity);
+		battery = Arrays.copyOf(battery, capacity);
+		bucket = new int[capacity];
+		next = new int[capacity];
+		heads = new int[tableSize(capacity)];
+		reindex();
+	}
+
+	public void move(int slot, float tx, float ty) {
+		x[slot] = tx;
+		y[slot] = ty;
+
+		if (bucketOf(tx, ty) != bucket[slot]) {
+			unlink(slot);
+			link(slot);
+		}
+	}
+
+	/**
+	 * Returns the first slot, in tick order, whose robot is less than range
+	 * away from the point on both axes, or -1 if there is none.
+	 */
+	public int find(float px, float py, float range) {
+		int left = grid(px - range), right = grid(px + range);
+		int top = grid(py - range), bottom = grid(py + range);
+		int found = -1;
+		int gx = left;
+
+		// Written as do-while so a point near Integer.MAX_VALUE still ends
+		do {
+			int gy = top;
+
+			do {
+				for (int slot = heads[hash(gx, gy)]; slot >= 0; slot = next[slot]) {
+					if ((found < 0 || slot < found)
+					 && Math.abs(x[slot] - px) < range
+					 && Math.abs(y[slot] - py) < range) {
+						found = slot;
+					}
+				}
+			} while (gy++ != bottom);
+		} while (gx++ != right);
+
+		return found;
+	}
+
+	/**
+	 * Returns the slot of the robot whose square the ray enters first within
+	 * {@code limit}, looking only at robots that can reach the tile the ray is
+	 * crossing, or -1. The lowest slot wins ties, like in find.
+	 */
+	public int findOnRay(Ray ray, float range, float limit, Robot ignore) {
+		return findOnRay(ray, range, 0, limit, ignore);
+	}
+
+	/**
+	 * Like {@link #findOnRay(Ray, float, float, Robot)}, only looking at the
+	 * part of the ray from {@code from} on.
+	 */
+	public int findOnRay(Ray ray, float range, float from, float limit, Robot ignore) {
+		int reach = (int)StrictMath.ceil(range / GRID_SIZE);
+		int found = -1;
+
+		// Grid squares are tiles, so the ray's tile is its grid square
+		for (int gx = ray.getColumn() - reach; gx <= ray.getColumn() + reach; gx++) {
+			for (int gy = ray.getRow() - reach; gy <= ray.getRow() + reach; gy++) {
+				for (int slot = heads[hash(gx, gy)]; slot >= 0; slot = next[slot]) {
+					if (robots[slot] == ignore) {
+						continue;
+					}
+
+					float distance = ray.toBox(x[slot], y[slot], range, from);
+
+					if (distance < limit || (distance == limit && found >= 0 && slot < found)) {
+						limit = distance;
+						found = slot;
+					}
+				}
+			}
+		}
+
+		return found;
+	}
+
+	protected void link(int slot) {
+		int b = bucketOf(x[slot], y[slot]);
+		bucket[slot] = b;
+		next[slot] = heads[b];
+		heads[b] = slot;
+	}
+
+	protected void unlink(int slot) {
+		int b = bucket[slot];
+
+		if (heads[b] == slot) {
+			heads[b] = next[slot];
+			return;
+		}
+
+		for (int i = heads[b]; i >= 0; i = next[i]) {
+			if (next[i] == slot) {
+				next[i] = next[slot];
+				return;
+			}
+		}
+	}
+
+	protected void reindex() {
+		Arrays.fill(heads, -1);
+
+		for (int i=0; i < size; i++) {
+			link(i);
+		}
+	}
+
+	protected int bucketOf(float px, float py) {
+		return hash(grid(px), grid(py));
+	}
+
+	protected int hash(int gx, int gy) {
+		int h = gx * 0x9E3779B1 + gy;
+		h ^= h >>> 16;
+		return h & (heads.length - 1);
+	}
+
+	protected static int grid(float f) {
+		return (int)StrictMath.floor(f / GRID_SIZE);
+	}
+
+	protected static int tableSize(int capacity) {
+		int n = 16;
+
+		while (n < capacity * 2) {
+			n <<= 1;
+		}
+
+		return n;
+	}
+
+	@Override
+	public Iterator<Robot> iterator() {
+		return new Iterator<Robot>() {
+			int slot = 0;
+
+			@Override
+			public boolean hasNext() {
+				return slot < size;
+			}
+
+			@Override
+			public Robot next() {
+				if (slot >= size) {
+					throw new NoSuchElementException();
+				}
+
+				return robots[slot++];
+			}
+		};
+	}
+
+	// At least twice Robot.COLLIDE_RANGE, so a collision query looks at no
+	// more than four squares
+	public static final int GRID_SIZE = World.TILE_SIZE;
+}
@@ -59,4 +59,41 @@ public enum TILE {; // Courtesy of http://stackoverflow.com/a/9618724
 	public static TileProperty not(TileProperty prop) {
 		return (int tile) -> !prop.presentIn(tile);
 	}
+	
+	// Bit flags for the properties above, looked up by tile with properties()
+	public static final int PROP_GROUND      = 1 << 0;
+	public static final int PROP_HAZARD      = 1 << 1;
+	public static final int PROP_WALL        = 1 << 2;
+	public static final int PROP_OBSTACLE    = 1 << 3;
+	public static final int PROP_FLOOR       = 1 << 4;
+	public static final int PROP_SOLID       = 1 << 5;
+	public static final int PROP_SPAWNABLE   = 1 << 6;
+	public static final int PROP_UNSPAWNABLE = 1 << 7;
+	
+	// Every property only depends on the low bits of a tile, so the table
+	// is built from the TileProperty definitions and covers any tile value
+	private static final int[] PROPERTIES = new int[256];
+	
+	static {
+		TileProperty[] props = {
+			IS_GROUND, IS_HAZARD, IS_WALL, IS_OBSTACLE, IS_FLOOR,
+			IS_SOLID, IS_SPAWNABLE, IS_UNSPAWNABLE
+		};
+		
+		for (int tile = 0; tile < PROPERTIES.length; tile++) {
+			for (int i = 0; i < props.length; i++) {
+				if (props[i].presentIn(tile)) {
+					PROPERTIES[tile] |= 1 << i;
+				}
+			}
+		}
+	}
+	
+	public static int properties(int tile) {
+		return PROPERTIES[tile & 0xFF];
+	}
+	
+	public static boolean hasProperty(int tile, int flags) {
+		return (PROPERTIES[tile & 0xFF] & flags) != 0;
+	}
 }
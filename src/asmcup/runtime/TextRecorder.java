@@ -0,0 +1,30 @@
+package asmcup.runtime;
+
+import java.io.PrintStream;
+import java.util.Base64;
+
+/**
+ * Writes each io event as an "io frame robot base64" line.
+ */
+public class TextRecorder implements Recorder {
+	protected final PrintStream out;
+	
+	public TextRecorder(PrintStream out) {
+		this.out = out;
+	}
+	
+	@Override
+	public void record(int frame, RecordedRobot robot, byte[] data) {
+		write(out, frame, robot.id, data);
+	}
+	
+	@Override
+	public void close() {
+		out.flush();
+	}
+	
+	public static void write(PrintStream out, int frame, int id, byte[] data) {
+		String encoded = Base64.getEncoder().encodeToString(data);
+		out.printf("io %d %d %s%n", frame, id, encoded);
+	}
+}
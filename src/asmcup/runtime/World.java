@@ -1,13 +1,19 @@
 package asmcup.runtime;
 
+import java.io.*;
 import java.util.*;
 
 public class World {
-	protected final ArrayList<Robot> robots;
-	protected final HashMap<Integer, Cell> cells;
-	protected final HashMap<Integer, byte[]> tileData;
+	protected final RobotStore robots;
+	// Cells by clamped row and column, each row allocated on first use
+	protected final Cell[][] cells;
+	protected final MarkStore marks;
 	protected final int seed;
 	protected int frame;
+	protected final CellCache cellCache;
+	// Rays walk every tile they cross instead of sampling RAY_INTERVAL steps
+	protected boolean exactRays;
+	protected final Radio radio;
 
 	private static final Random random = new Random();
 	
@@ -16,13 +22,111 @@ public class World {
 	}
 	
 	public World(int seed) {
-		this.robots = new ArrayList<>();
-		this.cells = new HashMap<>();
-		this.tileData = new HashMap<>();
+		this(seed, CellCache.getShared());
+	}
+	
+	/**
+	 * @param cellCache where to share generated cells, or null to generate
+	 *                  every cell this world needs itself
+	 */
+	public World(int seed, CellCache cellCache) {
+		this.cellCache = cellCache;
+		this.robots = new RobotStore();
+		this.radio = new Radio();
+		this.cells = new Cell[CELL_COUNT + 1][];
+		this.marks = new MarkStore();
 		this.seed = seed;
 		this.frame = 0;
 	}
 	
+	/**
+	 * Restores a world written by {@link #save(DataOutputStream)}.
+	 */
+	public World(DataInputStream stream) throws IOException {
+		this(stream.readInt());
+		frame = stream.readInt();
+		exactRays = stream.readBoolean();
+		
+		int count = stream.readInt();
+		
+		for (int i=0; i < count; i++) {
+			Cell cell = new Cell(this, stream);
+			cellsInRow(Cell.clampCell(cell.getY()))[Cell.clampCell(cell.getX())] = cell;
+		}
+		
+		marks.load(stream);
+		count = stream.readInt();
+		
+		for (int i=0; i < count; i++) {
+			addRobot(new Robot(stream));
+		}
+		
+		radio.load(stream);
+	}
+	
+	/**
+	 * Writes everything needed to continue the world from this frame. Cells
+	 * that haven't changed since they were generated are left out, they are
+	 * generated again from the seed when needed.
+	 */
+	public void save(DataOutputStream stream) throws IOException {
+		stream.writeInt(seed);
+		stream.writeInt(frame);
+		stream.writeBoolean(exactRays);
+		
+		ArrayList<Cell> modified = new ArrayList<>();
+		
+		for (Cell[] row : cells) {
+			if (row == null) {
+				continue;
+			}
+			
+			for (Cell cell : row) {
+				if (cell != null && cell.isModified()) {
+					modified.add(cell);
+				}
+			}
+		}
+		
+		stream.writeInt(modified.size());
+		
+		for (Cell cell : modified) {
+			cell.save(stream);
+		}
+		
+		marks.save(stream);
+		
+		stream.writeInt(robots.size());
+		
+		for (Robot robot : robots) {
+			robot.save(stream);
+		}
+		
+		radio.save(stream);
+	}
+	
+	/**
+	 * Returns the state of the world as an immutable byte array that any
+	 * number of threads can restore copies from.
+	 */
+	public byte[] snapshot() {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			save(new DataOutputStream(bytes));
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	public static World restore(byte[] snapshot) {
+		try {
+			return new World(new DataInputStream(new ByteArrayInputStream(snapshot)));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+	
 	public Iterable<Robot> getRobots() {
 		return robots;
 	}
@@ -31,6 +135,26 @@ public class World {
 		return seed;
 	}
 	
+	public MarkStore getMarks() {
+		return marks;
+	}
+	
+	public CellCache getCellCache() {
+		return cellCache;
+	}
+	
+	public boolean isExactRays() {
+		return exactRays;
+	}
+	
+	/**
+	 * Switches sensor and lazer rays from sampling every RAY_INTERVAL pixels,
+	 * which can step over corners and items, to measuring exact distances.
+	 */
+	public void setExactRays(boolean exactRays) {
+		this.exactRays = exactRays;
+	}
+	
 	public int getFrame() {
 		return frame;
 	}
@@ -44,18 +168,30 @@ public class World {
 	}
 	
 	public Cell getCell(int cellCol, int cellRow) {
-		int key = Cell.key(cellCol, cellRow);
-		Cell cell = cells.get(key);
+		Cell[] cellsInRow = cellsInRow(Cell.clampCell(cellRow));
+		int col = Cell.clampCell(cellCol);
+		Cell cell = cellsInRow[col];
 		
 		if (cell == null) {
 			cell = new Cell(this, cellCol, cellRow);
-			cells.put(key, cell);
+			cellsInRow[col] = cell;
 			cell.generate();
 		}
 		
 		return cell;
 	}
 	
+	protected Cell[] cellsInRow(int row) {
+		Cell[] cellsInRow = cells[row];
+		
+		if (cellsInRow == null) {
+			cellsInRow = new Cell[CELL_COUNT + 1];
+			cells[row] = cellsInRow;
+		}
+		
+		return cellsInRow;
+	}
+	
 	public Cell getCellXY(float x, float y) {
 		return getCell((int)(x / CELL_SIZE), (int)(y / CELL_SIZE));
 	}
@@ -80,16 +216,20 @@ public class World {
 		return prop.presentIn(tile);
 	}
 	
+	public boolean checkTile(int flags, float x, float y) {
+		return TILE.hasProperty(getTileXY(x, y), flags);
+	}
+	
 	public boolean isSolid(float x, float y) {
-		return checkTile(TILE.IS_SOLID, x, y);
+		return checkTile(TILE.PROP_SOLID, x, y);
 	}
 	
 	public boolean isHazard(float x, float y) {
-		return checkTile(TILE.IS_HAZARD, x, y);
+		return checkTile(TILE.PROP_HAZARD, x, y);
 	}
 	
 	public boolean isObstacle(float x, float y) {
-		return checkTile(TILE.IS_OBSTACLE, x, y);
+		return checkTile(TILE.PROP_OBSTACLE, x, y);
 	}
 	
 	public boolean checkTileNear(TILE.TileProperty prop, float x, float y, float r) {
@@ -97,13 +237,59 @@ public class World {
 				|| checkTile(prop, x - r, y - r) || checkTile(prop, x + r, y + r)
 				|| checkTile(prop, x - r, y + r) || checkTile(prop, x + r, y - r);
 	}
+	
+	/**
+	 * Checks the center and the four corners of a box like the TileProperty
+	 * version. Inside the world only the distinct tiles among those are read.
+	 * While r is under TILE_HALF the center tile is always a corner tile.
+	 */
+	public boolean checkTileNear(int flags, float x, float y, float r) {
+		float left = x - r, right = x + r;
+		float top = y - r, bottom = y + r;
+		
+		if (!(StrictMath.min(left, right) >= 0 && StrictMath.min(top, bottom) >= 0
+		 && StrictMath.max(left, right) <= SIZE && StrictMath.max(top, bottom) <= SIZE)) {
+			return checkTile(flags, x, y)
+					|| checkTile(flags, left, top) || checkTile(flags, right, bottom)
+					|| checkTile(flags, left, bottom) || checkTile(flags, right, top);
+		}
+		
+		int col0 = (int)(left / TILE_SIZE), col1 = (int)(right / TILE_SIZE);
+		int row0 = (int)(top / TILE_SIZE), row1 = (int)(bottom / TILE_SIZE);
+		
+		if (TILE.hasProperty(getTile(col0, row0), flags)) {
+			return true;
+		}
+		
+		if (col1 != col0 && TILE.hasProperty(getTile(col1, row0), flags)) {
+			return true;
+		}
+		
+		if (row1 != row0) {
+			if (TILE.hasProperty(getTile(col0, row1), flags)) {
+				return true;
+			}
+			
+			if (col1 != col0 && TILE.hasProperty(getTile(col1, row1), flags)) {
+				return true;
+			}
+		}
+		
+		int col = (int)(x / TILE_SIZE), row = (int)(y / TILE_SIZE);
+		
+		if ((col != col0 && col != col1) || (row != row0 && row != row1)) {
+			return TILE.hasProperty(getTile(col, row), flags);
+		}
+		
+		return false;
+	}
 
 	public boolean isSolidNear(float x, float y, float r) {
-		return checkTileNear(TILE.IS_SOLID, x, y, r);
+		return checkTileNear(TILE.PROP_SOLID, x, y, r);
 	}
 	
 	public boolean isUnspawnableNear(float x, float y, float r) {
-		return checkTileNear(TILE.IS_UNSPAWNABLE, x, y, r);
+		return checkTileNear(TILE.PROP_UNSPAWNABLE, x, y, r);
 	}
 	
 	public boolean canRobotGoTo(float x, float y) {
@@ -148,12 +334,14 @@ public class World {
 	}
 	
 	public void tick() {
-		for (Robot robot : robots) {
+		for (int i=0; i < robots.size(); i++) {
+			Robot robot = robots.get(i);
 			robot.tick(this);
 			tickItems(robot);
 			tickHazards(robot);
 		}
 		
+		radio.deliver();
 		frame++;
 	}
 	
@@ -196,40 +384,30 @@ public class World {
 	}
 	
 	public Robot getRobot(float x, float y) {
-		for (Robot robot : robots) {
-			if (Math.abs(robot.getX() - x) < Robot.COLLIDE_RANGE
-			 && Math.abs(robot.getY() - y) < Robot.COLLIDE_RANGE) {
-				return robot;
-			}
-		}
-		return null;
+		int slot = robots.find(x, y, Robot.COLLIDE_RANGE);
+		return (slot < 0) ? null : robots.get(slot);
 	}
 
 	public void mark(Robot robot, int offset, int value) {
 		int key = robot.getColumn() | (robot.getRow() << 16);
-		byte[] data = tileData.get(key);
-		
-		if (data == null) {
-			data = new byte[8];
-			tileData.put(key, data);
-		}
-		
-		data[offset & 0b11] = (byte)(value & 0xFF);
+		marks.write(key, offset, value, frame);
 	}
 
 	public int markRead(Robot robot, int offset) {
 		int key = robot.getColumn() | (robot.getRow() << 16);
-		byte[] data = tileData.get(key);
-		return (data == null) ? 0 : data[offset & 0b11];
+		return marks.read(key, offset);
 	}
 	
+	/**
+	 * Broadcasts a byte that robots tuned to the frequency within
+	 * RADIO_RANGE hear during the next frame.
+	 */
 	public void send(Robot robot, float frequency, int data) {
-		// TODO send data on radio
+		radio.send(robot, frequency, data);
 	}
 	
 	public int recv(Robot robot, float frequency) {
-		// TODO read data on radio
-		return 0;
+		return radio.recv(robot, frequency);
 	}
 	
 	public static final int TILE_SIZE = 32;
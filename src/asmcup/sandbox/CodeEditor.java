@@ -10,9 +10,11 @@ import java.util.List;
 import javax.imageio.ImageIO;
 import javax.swing.*;
 import javax.swing.border.BevelBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.text.PlainDocument;
 
-import asmcup.compiler.Compiler;
+import asmcup.compiler.IncrementalCompiler;
 import asmcup.decompiler.Decompiler;
 
 public class CodeEditor extends JFrame {
@@ -20,8 +22,13 @@ public class CodeEditor extends JFrame {
 	protected JEditorPane editor;
 	protected JLabel statusLabel;
 	protected Menu menu;
+	// Program flashed to the robot, only changed by compile()
 	protected byte[] ram = new byte[256];
+	// Last program that assembled as it was typed, for the status bar
+	protected byte[] live = new byte[256];
 	protected File currentFile;
+	// Reused between compiles so only the edited lines are assembled again
+	protected final IncrementalCompiler compiler = new IncrementalCompiler();
 	
 	public CodeEditor(Sandbox sandbox) throws IOException {
 		this.sandbox = sandbox;
@@ -48,6 +55,19 @@ public class CodeEditor extends JFrame {
 		editor.getDocument().putProperty(PlainDocument.tabSizeAttribute, 2);
 		new DefaultContextMenu(editor);
 		
+		editor.getDocument().addDocumentListener(new DocumentListener() {
+			public void insertUpdate(DocumentEvent e) {
+				SwingUtilities.invokeLater(() -> assemble());
+			}
+			
+			public void removeUpdate(DocumentEvent e) {
+				SwingUtilities.invokeLater(() -> assemble());
+			}
+			
+			public void changedUpdate(DocumentEvent e) {
+			}
+		});
+		
 		editor.setDropTarget(new DropTarget() {
 			public synchronized void drop(DropTargetDropEvent e) {
 				try {
@@ -103,8 +123,20 @@ public class CodeEditor extends JFrame {
 		setVisible(false);
 	}
 	
+	/**
+	 * Assembles the code as it is typed, showing errors in the status bar
+	 * instead of a dialog. Flashing still takes what compile() assembled.
+	 */
+	public void assemble() {
+		try {
+			live = compiler.compile(editor.getText());
+			statusLabel.setText(String.format("Bytes used: %d", compiler.getBytesUsed()));
+		} catch (Exception e) {
+			statusLabel.setText(e.getMessage());
+		}
+	}
+	
 	public boolean compile() {
-		Compiler compiler = new Compiler();
 		try {
 			ram = compiler.compile(editor.getText());
 			statusLabel.setText(String.format("Bytes used: %d", compiler.getBytesUsed()));
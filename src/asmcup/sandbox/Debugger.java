@@ -8,6 +8,7 @@ import javax.imageio.ImageIO;
 import javax.swing.*;
 
 import asmcup.runtime.Robot;
+import asmcup.vm.Profile;
 
 public class Debugger extends JFrame {
 	protected final Sandbox sandbox;
@@ -19,6 +20,7 @@ public class Debugger extends JFrame {
 	protected JSlider lazerSlider;
 	protected JProgressBar batteryBar, sensorBar;
 	protected JLabel goldLabel;
+	protected JCheckBox profileBox;
 	protected FrontPanel bottomPane;
 	
 	protected JPanel panel;
@@ -37,6 +39,8 @@ public class Debugger extends JFrame {
 		sensorBar =  bar(0, 256);
 		batteryBar = bar(0, Robot.BATTERY_MAX);
 		goldLabel = new JLabel("0");
+		profileBox = new JCheckBox("Heat map");
+		profileBox.addActionListener((e) -> updateProfile());
 		
 		panel = new JPanel(new BorderLayout());
 		bottomPane = new FrontPanel();
@@ -48,6 +52,7 @@ public class Debugger extends JFrame {
 		bottomPane.addRow("Battery:", batteryBar);
 		bottomPane.addRow("Sensor:", sensorBar);
 		bottomPane.addRow("Gold:", goldLabel);
+		bottomPane.addRow("Profile:", profileBox);
 		updating = false;
 		
 		panel.add(scrollPane, BorderLayout.CENTER);
@@ -82,6 +87,7 @@ public class Debugger extends JFrame {
 		sensorBar.setValue((int)robot.getSensor());
 		batteryBar.setValue(robot.getBattery());
 		goldLabel.setText(String.valueOf(robot.getGold()));
+		profileBox.setSelected(robot.getVM().getProfile() != null);
 		updating = false;
 		repaint();
 	}
@@ -99,6 +105,17 @@ public class Debugger extends JFrame {
 		}
 	}
 	
+	public void updateProfile() {
+		if (updating) {
+			return;
+		}
+		synchronized (sandbox.getWorld()) {
+			Robot robot = sandbox.getRobot();
+			robot.getVM().setProfile(profileBox.isSelected() ? new Profile() : null);
+		}
+		repaint();
+	}
+	
 	protected class MemoryPane extends JComponent {
 		protected Font font;
 		protected int start, end;
@@ -109,6 +126,19 @@ public class Debugger extends JFrame {
 			setPreferredSize(new Dimension(17 * 16, 16 * 16));
 			addMouseListener(mouse);
 			addMouseMotionListener(mouse);
+			setToolTipText("");
+		}
+		
+		@Override
+		public String getToolTipText(MouseEvent e) {
+			Profile profile = sandbox.getRobot().getVM().getProfile();
+			int addr = transform(e);
+			
+			if (profile == null) {
+				return String.format("$%02x", addr);
+			}
+			
+			return String.format("$%02x: executed %d times", addr, profile.getAddress(addr));
 		}
 		
 		public int transform(int x, int y) {
@@ -136,6 +166,15 @@ public class Debugger extends JFrame {
 			
 			g.setFont(font);
 			
+			// Shade addresses by how often they ran, on a log scale so a
+			// hot loop doesn't wash out everything else
+			Profile profile = robot.getVM().getProfile();
+			long hottest = 0;
+			
+			for (int addr=0; profile != null && addr < 256; addr++) {
+				hottest = Math.max(hottest, profile.getAddress(addr));
+			}
+			
 			for (int row=0; row < 16; row++) {
 				int y = 12 + row * 16;
 				
@@ -154,6 +193,12 @@ public class Debugger extends JFrame {
 						g.fillRect(x, y - 12, 16, 16);
 						g.setColor(Color.WHITE);
 					} else {
+						if (hottest > 0 && profile.getAddress(addr) > 0) {
+							float heat = (float)(Math.log1p(profile.getAddress(addr)) / Math.log1p(hottest));
+							g.setColor(new Color(1.0f, 1.0f - heat * 0.6f, 1.0f - heat));
+							g.fillRect(x, y - 12, 16, 16);
+						}
+						
 						g.setColor(Color.BLACK);
 					}
 					
@@ -0,0 +1,41 @@
+package asmcup.vm;
+
+/**
+ * A straight-line run of VM code translated to JVM bytecode by
+ * {@link JitCompiler}. Blocks are immutable and shared between VMs.
+ */
+public abstract class JitBlock {
+	private int start, length, cycles;
+
+	protected JitBlock() {
+	}
+
+	void init(int start, int length, int cycles) {
+		this.start = start;
+		this.length = length;
+		this.cycles = cycles;
+	}
+
+	public int getStart() {
+		return start;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	public int getCycles() {
+		return cycles;
+	}
+
+	public boolean covers(int addr) {
+		return ((addr - start) & 0xFF) < length;
+	}
+
+	/**
+	 * Runs the block on the given VM.
+	 * @return number of instructions executed shifted left by 8, or'ed with
+	 *         the new program counter
+	 */
+	public abstract int execute(JitVM vm);
+}
@@ -0,0 +1,777 @@
+package asmcup.vm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Translates basic blocks of VM code into JVM classes. A block ends after the
+ * first jump, branch, jsr, ret or io, or after MAX_INSTRUCTIONS. Every
+ * instruction calls the same public VM methods the interpreter uses, so the
+ * wrapping pc/sp, stack-in-RAM and StrictMath semantics stay identical.
+ * After each instruction that may write memory the block checks
+ * {@link JitVM#isModified()} and bails out if it overwrote itself.
+ */
+public class JitCompiler implements VMConsts {
+	public static final int MAX_INSTRUCTIONS = 64;
+	private static final int MAX_CACHED = 1 << 14;
+	private static final int MAX_STACK = 8;
+
+	private static final ConcurrentHashMap<Key, JitBlock> cache = new ConcurrentHashMap<>();
+	private static final AtomicInteger classCount = new AtomicInteger();
+
+	private static final String VM_CLASS = "asmcup/vm/VM";
+	private static final String JIT_VM_CLASS = "asmcup/vm/JitVM";
+	private static final String BLOCK_CLASS = "asmcup/vm/JitBlock";
+
+	protected final byte[] ram;
+	protected final int start;
+	protected final String name;
+
+	protected final HashMap<String, Integer> constants = new HashMap<>();
+	protected final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+	protected final DataOutputStream pool = new DataOutputStream(poolBytes);
+	protected int poolCount = 1;
+
+	protected final ByteArrayOutputStream codeBytes = new ByteArrayOutputStream();
+	protected final DataOutputStream code = new DataOutputStream(codeBytes);
+	protected final ArrayList<Integer> frames = new ArrayList<>();
+
+	protected JitCompiler(byte[] ram, int start) {
+		this.ram = ram;
+		this.start = start & 0xFF;
+		this.name = "asmcup/vm/JitBlock$" + classCount.incrementAndGet();
+	}
+
+	/**
+	 * Returns the compiled block starting at the given address, reusing an
+	 * earlier translation of the same bytes when there is one.
+	 */
+	public static JitBlock compile(byte[] ram, int start) {
+		Key key = new Key(ram, start & 0xFF, measure(ram, start));
+		JitBlock block = cache.get(key);
+
+		if (block != null) {
+			return block;
+		}
+
+		if (cache.size() >= MAX_CACHED) {
+			cache.clear();
+		}
+
+		try {
+			block = new JitCompiler(key.code, start).define();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		JitBlock previous = cache.putIfAbsent(key, block);
+		return previous != null ? previous : block;
+	}
+
+	public static int measure(byte[] ram, int start) {
+		int pc = start;
+		int count = 0;
+
+		while (true) {
+			int bits = ram[pc & 0xFF] & 0xFF;
+			pc += instructionLength(bits);
+			count++;
+
+			if (isTerminal(bits) || count >= MAX_INSTRUCTIONS || pc - start > 0xFF - 5) {
+				return pc - start;
+			}
+		}
+	}
+
+	public static int instructionLength(int bits) {
+		int data = bits >> 2;
+
+		switch (bits & 0b11) {
+		case OP_PUSH:
+			switch (data) {
+			case MAGIC_PUSH_FLOAT_IMMEDIATE:
+				return 5;
+			case MAGIC_PUSH_BYTE_IMMEDIATE:
+			case MAGIC_PUSH_BYTE_MEMORY:
+			case MAGIC_PUSH_FLOAT_MEMORY:
+				return 2;
+			}
+			return 1;
+		case OP_POP:
+			switch (data) {
+			case MAGIC_POP_BYTE:
+			case MAGIC_POP_FLOAT:
+			case MAGIC_POP_BYTE_INDIRECT:
+			case MAGIC_POP_FLOAT_INDIRECT:
+				return 2;
+			}
+			return 1;
+		case OP_BRANCH:
+			switch (data) {
+			case MAGIC_BRANCH_ALWAYS:
+			case MAGIC_BRANCH_IMMEDIATE:
+			case MAGIC_BRANCH_INDIRECT:
+				return 2;
+			}
+			return 1;
+		}
+
+		return 1;
+	}
+
+	public static boolean isTerminal(int bits) {
+		switch (bits & 0b11) {
+		case OP_BRANCH:
+			return true;
+		case OP_FUNC:
+			switch (bits >> 2) {
+			case F_JSR:
+			case F_RET:
+			case F_IO:
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	protected JitBlock define() throws IOException {
+		int length = ram.length;
+		int pc = start;
+		int count = 0;
+
+		while (pc - start < length) {
+			int bits = read8(pc);
+			int next = pc + instructionLength(bits);
+			count++;
+
+			if (isTerminal(bits)) {
+				emitTerminal(bits, pc, next & 0xFF, count);
+			} else {
+				emitInstruction(bits, pc, next & 0xFF);
+
+				if (next - start >= length) {
+					emitReturn(count, next & 0xFF);
+				} else if (bits != OP_FUNC) {
+					// Anything but a nop may have written over the rest of the block
+					emitModifiedCheck(count, next & 0xFF);
+				}
+			}
+
+			pc = next;
+		}
+
+		byte[] bytes = assemble();
+		JitBlock block = Loader.load(name.replace('/', '.'), bytes);
+		block.init(start, length, count);
+		return block;
+	}
+
+	protected int read8(int addr) {
+		return ram[(addr - start) & 0xFF] & 0xFF;
+	}
+
+	protected int read32(int addr) {
+		return read8(addr) | (read8(addr + 1) << 8) | (read8(addr + 2) << 16) | (read8(addr + 3) << 24);
+	}
+
+	protected void emitInstruction(int bits, int pc, int next) throws IOException {
+		int data = bits >> 2;
+
+		switch (bits & 0b11) {
+		case OP_FUNC:
+			emitFunc(data);
+			break;
+		case OP_PUSH:
+			switch (data) {
+			case MAGIC_PUSH_BYTE_IMMEDIATE:
+				vm();
+				sipush(read8(pc + 1));
+				invokeVM("push8", "(I)V");
+				break;
+			case MAGIC_PUSH_BYTE_MEMORY:
+				vm();
+				vm();
+				sipush(read8(pc + 1));
+				invokeVM("read8", "(I)I");
+				invokeVM("push8", "(I)V");
+				break;
+			case MAGIC_PUSH_FLOAT_IMMEDIATE:
+				vm();
+				floatBits(read32(pc + 1));
+				invokeVM("pushFloat", "(F)V");
+				break;
+			case MAGIC_PUSH_FLOAT_MEMORY:
+				vm();
+				vm();
+				sipush(read8(pc + 1));
+				invokeVM("read32", "(I)I");
+				invokeFloat("intBitsToFloat", "(I)F");
+				invokeVM("pushFloat", "(F)V");
+				break;
+			default:
+				vm();
+				vm();
+				sipush((next + data - 32) & 0xFF);
+				invokeVM("read8", "(I)I");
+				invokeVM("push8", "(I)V");
+				break;
+			}
+			break;
+		case OP_POP:
+			switch (data) {
+			case MAGIC_POP_BYTE:
+				vm();
+				sipush(read8(pc + 1));
+				pop8();
+				invokeVM("write8", "(II)V");
+				break;
+			case MAGIC_POP_FLOAT:
+				vm();
+				sipush(read8(pc + 1));
+				popFloat();
+				invokeVM("writeFloat", "(IF)V");
+				break;
+			case MAGIC_POP_BYTE_INDIRECT:
+				vm();
+				vm();
+				sipush(read8(pc + 1));
+				invokeVM("read8", "(I)I");
+				pop8();
+				invokeVM("write8", "(II)V");
+				break;
+			case MAGIC_POP_FLOAT_INDIRECT:
+				vm();
+				vm();
+				sipush(read8(pc + 1));
+				invokeVM("read8", "(I)I");
+				popFloat();
+				invokeVM("writeFloat", "(IF)V");
+				break;
+			default:
+				vm();
+				sipush((next + data - 32) & 0xFF);
+				pop8();
+				invokeVM("write8", "(II)V");
+				break;
+			}
+			break;
+		}
+	}
+
+	protected void emitFunc(int data) throws IOException {
+		switch (data) {
+		case F_NOP:
+		case F_NOP61:
+		case F_NOP62:
+			break;
+
+		case F_B2F:
+			vm();
+			pop8();
+			code.writeByte(I2F);
+			invokeVM("pushFloat", "(F)V");
+			break;
+		case F_F2B:
+			vm();
+			popFloat();
+			code.writeByte(F2I);
+			invokeVM("push8", "(I)V");
+			break;
+
+		case F_NOT:
+			vm();
+			pop8();
+			code.writeByte(ICONST_M1);
+			code.writeByte(IXOR);
+			invokeVM("push8", "(I)V");
+			break;
+		case F_OR:
+			binary8(IOR);
+			break;
+		case F_AND:
+			binary8(IAND);
+			break;
+		case F_XOR:
+			binary8(IXOR);
+			break;
+		case F_SHL:
+			vm();
+			pop8();
+			code.writeByte(ICONST_1);
+			code.writeByte(ISHL);
+			invokeVM("push8", "(I)V");
+			break;
+		case F_SHR:
+			vm();
+			pop8();
+			code.writeByte(ICONST_1);
+			code.writeByte(ISHR);
+			invokeVM("push8", "(I)V");
+			break;
+		case F_ADD8:
+			binary8(IADD);
+			break;
+		case F_SUB8:
+			binary8(ISUB);
+			break;
+		case F_MUL8:
+			binary8(IMUL);
+			break;
+		case F_MADD8:
+			vm();
+			pop8();
+			pop8();
+			code.writeByte(IMUL);
+			pop8();
+			code.writeByte(IADD);
+			invokeVM("push8", "(I)V");
+			break;
+
+		case F_C_0:
+			constant8(0);
+			break;
+		case F_C_1:
+			constant8(1);
+			break;
+		case F_C_2:
+			constant8(2);
+			break;
+		case F_C_3:
+			constant8(3);
+			break;
+		case F_C_4:
+			constant8(4);
+			break;
+		case F_C_255:
+			constant8(0xFF);
+			break;
+
+		case F_C_M1F:
+			constantFloat(-1.0f);
+			break;
+		case F_C_0F:
+			constantFloat(0.0f);
+			break;
+		case F_C_1F:
+			constantFloat(1.0f);
+			break;
+		case F_C_2F:
+			constantFloat(2.0f);
+			break;
+		case F_C_3F:
+			constantFloat(3.0f);
+			break;
+		case F_C_INF:
+			constantFloat(Float.POSITIVE_INFINITY);
+			break;
+
+		case F_DUP8:
+			vm();
+			vm();
+			invokeVM("peek8", "()I");
+			invokeVM("push8", "(I)V");
+			break;
+		case F_DUPF:
+			vm();
+			vm();
+			invokeVM("peekFloat", "()F");
+			invokeVM("pushFloat", "(F)V");
+			break;
+
+		default:
+			// Float arithmetic, math, comparisons and fetches go through the
+			// interpreter's own implementation. The JVM leaves the payload of
+			// a NaN result unspecified, so only sharing the code keeps those
+			// bit-identical with VM.
+			vm();
+			sipush(data);
+			invokeVM("op_func", "(I)V");
+			break;
+		}
+	}
+
+	protected void emitTerminal(int bits, int pc, int next, int count) throws IOException {
+		int data = bits >> 2;
+
+		if ((bits & 0b11) == OP_FUNC) {
+			switch (data) {
+			case F_JSR:
+				// Leave the target on the operand stack while pushing the return address
+				pop8();
+				vm();
+				sipush(next);
+				invokeVM("push8", "(I)V");
+				emitDynamicReturn(count);
+				break;
+			case F_RET:
+				pop8();
+				emitDynamicReturn(count);
+				break;
+			case F_IO:
+				vm();
+				code.writeByte(ICONST_1);
+				invokeVM("setIO", "(Z)V");
+				emitReturn(count, next);
+				break;
+			}
+			return;
+		}
+
+		switch (data) {
+		case MAGIC_BRANCH_ALWAYS:
+			emitReturn(count, read8(pc + 1));
+			break;
+		case MAGIC_BRANCH_INDIRECT:
+			vm();
+			sipush(read8(pc + 1));
+			invokeVM("read8", "(I)I");
+			emitDynamicReturn(count);
+			break;
+		case MAGIC_BRANCH_IMMEDIATE:
+			emitBranch(count, read8(pc + 1), next);
+			break;
+		default:
+			emitBranch(count, (next + data - 32) & 0xFF, next);
+			break;
+		}
+	}
+
+	protected void emitBranch(int count, int target, int next) throws IOException {
+		pop8();
+		code.writeByte(IFEQ);
+		code.writeShort(3 + 4);
+		emitReturn(count, target);
+		frames.add(codeBytes.size());
+		emitReturn(count, next);
+	}
+
+	protected void emitModifiedCheck(int count, int next) throws IOException {
+		vm();
+		invoke(INVOKEVIRTUAL, JIT_VM_CLASS, "isModified", "()Z");
+		code.writeByte(IFEQ);
+		code.writeShort(3 + 4);
+		emitReturn(count, next);
+		frames.add(codeBytes.size());
+	}
+
+	protected void emitReturn(int count, int next) throws IOException {
+		sipush((count << 8) | next);
+		code.writeByte(IRETURN);
+	}
+
+	protected void emitDynamicReturn(int count) throws IOException {
+		sipush(count << 8);
+		code.writeByte(IOR);
+		code.writeByte(IRETURN);
+	}
+
+	protected void binary8(int op) throws IOException {
+		vm();
+		pop8();
+		pop8();
+		code.writeByte(op);
+		invokeVM("push8", "(I)V");
+	}
+
+	protected void constant8(int value) throws IOException {
+		vm();
+		sipush(value);
+		invokeVM("push8", "(I)V");
+	}
+
+	protected void constantFloat(float value) throws IOException {
+		vm();
+		floatBits(Float.floatToRawIntBits(value));
+		invokeVM("pushFloat", "(F)V");
+	}
+
+	protected void floatBits(int bits) throws IOException {
+		// Going through intBitsToFloat like VM.readFloat() keeps NaN payloads
+		code.writeByte(LDC_W);
+		code.writeShort(integer(bits));
+		invokeFloat("intBitsToFloat", "(I)F");
+	}
+
+	protected void pop8() throws IOException {
+		vm();
+		invokeVM("pop8", "()I");
+	}
+
+	protected void popFloat() throws IOException {
+		vm();
+		invokeVM("popFloat", "()F");
+	}
+
+	protected void vm() throws IOException {
+		code.writeByte(ALOAD_1);
+	}
+
+	protected void sipush(int value) throws IOException {
+		code.writeByte(SIPUSH);
+		code.writeShort(value);
+	}
+
+	protected void invokeVM(String method, String desc) throws IOException {
+		invoke(INVOKEVIRTUAL, VM_CLASS, method, desc);
+	}
+
+	protected void invokeFloat(String method, String desc) throws IOException {
+		invoke(INVOKESTATIC, "java/lang/Float", method, desc);
+	}
+
+	protected void invoke(int op, String owner, String method, String desc) throws IOException {
+		code.writeByte(op);
+		code.writeShort(methodRef(owner, method, desc));
+	}
+
+	protected byte[] assemble() throws IOException {
+		int thisClass = classRef(name);
+		int superClass = classRef(BLOCK_CLASS);
+		int init = methodRef(BLOCK_CLASS, "<init>", "()V");
+		int initName = utf8("<init>");
+		int initDesc = utf8("()V");
+		int executeName = utf8("execute");
+		int executeDesc = utf8("(L" + JIT_VM_CLASS + ";)I");
+		int codeName = utf8("Code");
+		int framesName = utf8("StackMapTable");
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0xCAFEBABE);
+		out.writeShort(0);
+		out.writeShort(52);
+		out.writeShort(poolCount);
+		out.write(poolBytes.toByteArray());
+		out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+		out.writeShort(thisClass);
+		out.writeShort(superClass);
+		out.writeShort(0);
+		out.writeShort(0);
+		out.writeShort(2);
+
+		// public <init>() { super(); }
+		out.writeShort(ACC_PUBLIC);
+		out.writeShort(initName);
+		out.writeShort(initDesc);
+		out.writeShort(1);
+		out.writeShort(codeName);
+		out.writeInt(2 + 2 + 4 + 5 + 2 + 2);
+		out.writeShort(1);
+		out.writeShort(1);
+		out.writeInt(5);
+		out.writeByte(ALOAD_0);
+		out.writeByte(INVOKESPECIAL);
+		out.writeShort(init);
+		out.writeByte(RETURN);
+		out.writeShort(0);
+		out.writeShort(0);
+
+		// public int execute(JitVM vm)
+		byte[] body = codeBytes.toByteArray();
+		byte[] stackMap = stackMap();
+		out.writeShort(ACC_PUBLIC);
+		out.writeShort(executeName);
+		out.writeShort(executeDesc);
+		out.writeShort(1);
+		out.writeShort(codeName);
+		out.writeInt(2 + 2 + 4 + body.length + 2 + 2 + (stackMap.length > 0 ? 6 + stackMap.length : 0));
+		out.writeShort(MAX_STACK);
+		out.writeShort(2);
+		out.writeInt(body.length);
+		out.write(body);
+		out.writeShort(0);
+
+		if (stackMap.length > 0) {
+			out.writeShort(1);
+			out.writeShort(framesName);
+			out.writeInt(stackMap.length);
+			out.write(stackMap);
+		} else {
+			out.writeShort(0);
+		}
+
+		out.writeShort(0);
+		return bytes.toByteArray();
+	}
+
+	protected byte[] stackMap() throws IOException {
+		if (frames.isEmpty()) {
+			return new byte[0];
+		}
+
+		// Every branch target has the initial locals and an empty stack
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeShort(frames.size());
+		int last = -1;
+
+		for (int offset : frames) {
+			int delta = offset - last - 1;
+
+			if (delta < 64) {
+				out.writeByte(delta);
+			} else {
+				out.writeByte(SAME_FRAME_EXTENDED);
+				out.writeShort(delta);
+			}
+
+			last = offset;
+		}
+
+		return bytes.toByteArray();
+	}
+
+	protected int utf8(String s) throws IOException {
+		Integer index = constants.get("U" + s);
+
+		if (index == null) {
+			pool.writeByte(CONSTANT_UTF8);
+			pool.writeUTF(s);
+			index = addConstant("U" + s);
+		}
+
+		return index;
+	}
+
+	protected int integer(int value) throws IOException {
+		Integer index = constants.get("I" + value);
+
+		if (index == null) {
+			pool.writeByte(CONSTANT_INTEGER);
+			pool.writeInt(value);
+			index = addConstant("I" + value);
+		}
+
+		return index;
+	}
+
+	protected int classRef(String className) throws IOException {
+		Integer index = constants.get("C" + className);
+
+		if (index == null) {
+			int nameIndex = utf8(className);
+			pool.writeByte(CONSTANT_CLASS);
+			pool.writeShort(nameIndex);
+			index = addConstant("C" + className);
+		}
+
+		return index;
+	}
+
+	protected int methodRef(String owner, String method, String desc) throws IOException {
+		String key = "M" + owner + "." + method + desc;
+		Integer index = constants.get(key);
+
+		if (index == null) {
+			int ownerIndex = classRef(owner);
+			int nameIndex = utf8(method);
+			int descIndex = utf8(desc);
+			pool.writeByte(CONSTANT_NAME_AND_TYPE);
+			pool.writeShort(nameIndex);
+			pool.writeShort(descIndex);
+			int nameAndType = addConstant("N" + method + desc);
+			pool.writeByte(CONSTANT_METHODREF);
+			pool.writeShort(ownerIndex);
+			pool.writeShort(nameAndType);
+			index = addConstant(key);
+		}
+
+		return index;
+	}
+
+	private int addConstant(String key) {
+		int index = poolCount++;
+		constants.put(key, index);
+		return index;
+	}
+
+	protected static class Key {
+		final int start;
+		final byte[] code;
+		final int hash;
+
+		Key(byte[] ram, int start, int length) {
+			this.start = start;
+			this.code = new byte[length];
+
+			for (int i=0; i < length; i++) {
+				code[i] = ram[(start + i) & 0xFF];
+			}
+
+			this.hash = start * 31 + Arrays.hashCode(code);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) return false;
+
+			Key key = (Key) obj;
+			return start == key.start && Arrays.equals(code, key.code);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	protected static class Loader extends ClassLoader {
+		Loader() {
+			super(JitBlock.class.getClassLoader());
+		}
+
+		static JitBlock load(String name, byte[] bytes) {
+			// One loader per block lets unused translations be unloaded
+			Class<?> c = new Loader().defineClass(name, bytes, 0, bytes.length);
+
+			try {
+				return (JitBlock)c.getDeclaredConstructor().newInstance();
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalStateException("Failed to instantiate compiled block", e);
+			}
+		}
+	}
+
+	private static final int CONSTANT_UTF8 = 1;
+	private static final int CONSTANT_INTEGER = 3;
+	private static final int CONSTANT_CLASS = 7;
+	private static final int CONSTANT_METHODREF = 10;
+	private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+	private static final int ACC_PUBLIC = 0x0001;
+	private static final int ACC_FINAL = 0x0010;
+	private static final int ACC_SUPER = 0x0020;
+
+	private static final int SAME_FRAME_EXTENDED = 251;
+
+	private static final int ICONST_M1 = 0x02;
+	private static final int ICONST_1 = 0x04;
+	private static final int SIPUSH = 0x11;
+	private static final int LDC_W = 0x13;
+	private static final int ALOAD_0 = 0x2a;
+	private static final int ALOAD_1 = 0x2b;
+	private static final int IADD = 0x60;
+	private static final int ISUB = 0x64;
+	private static final int IMUL = 0x68;
+	private static final int ISHL = 0x78;
+	private static final int ISHR = 0x7a;
+	private static final int IAND = 0x7e;
+	private static final int IOR = 0x80;
+	private static final int IXOR = 0x82;
+	private static final int I2F = 0x86;
+	private static final int F2I = 0x8b;
+	private static final int IFEQ = 0x99;
+	private static final int IRETURN = 0xac;
+	private static final int RETURN = 0xb1;
+	private static final int INVOKEVIRTUAL = 0xb6;
+	private static final int INVOKESPECIAL = 0xb7;
+	private static final int INVOKESTATIC = 0xb8;
+}
@@ -0,0 +1,149 @@
+package asmcup.vm;
+
+import java.io.*;
+
+/**
+ * A VM that interprets cold code and hands blocks executed more than
+ * {@link #threshold} times to {@link JitCompiler}. Writing over a compiled
+ * block drops it and the VM falls back to the interpreter until the new code
+ * gets hot again.
+ */
+public class JitVM extends VM {
+	public int threshold = 16;
+	private final JitBlock[] blocks = new JitBlock[256];
+	private final int[] heat = new int[256];
+	private boolean modified;
+	private boolean verifying;
+
+	public JitVM() {
+		super();
+	}
+
+	public JitVM(byte[] ram) {
+		super(ram);
+	}
+
+	public JitVM(DataInputStream stream) throws IOException {
+		super(stream);
+	}
+
+	public final boolean isModified() {
+		return modified;
+	}
+
+	public boolean isVerifying() {
+		return verifying;
+	}
+
+	/**
+	 * In verifying mode every compiled block is also run on an interpreted
+	 * copy of the VM and an IllegalStateException is thrown as soon as the
+	 * two disagree. This is slow and meant for tests and debugging.
+	 */
+	public void setVerifying(boolean verifying) {
+		this.verifying = verifying;
+	}
+
+	@Override
+	public void invalidate() {
+		super.invalidate();
+
+		for (int i=0; i < 256; i++) {
+			blocks[i] = null;
+			heat[i] = 0;
+		}
+	}
+
+	@Override
+	protected void invalidate(int addr) {
+		super.invalidate(addr);
+
+		for (int i=0; i < 256; i++) {
+			JitBlock block = blocks[i];
+
+			if (block != null && block.covers(addr)) {
+				blocks[i] = null;
+				heat[i] = 0;
+			}
+		}
+
+		modified = true;
+	}
+
+	@Override
+	public int run(int maxCycles) {
+		// Blocks can't count what they execute
+		if (getProfile() != null) {
+			return super.run(maxCycles);
+		}
+
+		int cycles = 0;
+
+		while (cycles < maxCycles) {
+			JitBlock block = lookup(getProgramCounter());
+
+			// Blocks longer than the remaining budget are interpreted so the
+			// cycle count never overshoots maxCycles
+			if (block == null || block.getCycles() > maxCycles - cycles) {
+				tick();
+				cycles++;
+			} else {
+				cycles += execute(block);
+			}
+
+			if (peekIO()) {
+				break;
+			}
+		}
+
+		return cycles;
+	}
+
+	protected JitBlock lookup(int pc) {
+		JitBlock block = blocks[pc];
+
+		if (block != null || ++heat[pc] < threshold) {
+			return block;
+		}
+
+		block = JitCompiler.compile(getMemory(), pc);
+
+		for (int i=0; i < block.getLength(); i++) {
+			cover(pc + i);
+		}
+
+		blocks[pc] = block;
+		return block;
+	}
+
+	protected int execute(JitBlock block) {
+		VM reference = verifying ? copy() : null;
+
+		modified = false;
+		int result = block.execute(this);
+		int cycles = result >>> 8;
+		setProgramCounter(result & 0xFF);
+
+		if (reference != null) {
+			for (int i=0; i < cycles; i++) {
+				reference.tick();
+			}
+
+			if (!reference.equals(this)) {
+				throw new IllegalStateException(String.format("JIT block at $%02x diverged from the interpreter", block.getStart()));
+			}
+		}
+
+		return cycles;
+	}
+
+	private VM copy() {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			save(new DataOutputStream(bytes));
+			return new VM(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
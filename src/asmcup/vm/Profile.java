@@ -0,0 +1,111 @@
+package asmcup.vm;
+
+import java.io.PrintStream;
+import java.util.*;
+
+/**
+ * Counts what a VM executes while attached with {@link VM#setProfile(Profile)}:
+ * instructions by address, opcode and function, and io by port. Every
+ * instruction costs a cycle of battery, so the counts show where it goes.
+ */
+public class Profile implements VMConsts {
+	protected final long[] addresses = new long[256];
+	protected final long[] opcodes = new long[4];
+	protected final long[] funcs = new long[64];
+	protected final long[] ports = new long[256];
+	protected long instructions;
+
+	public void count(int pc, int bits) {
+		int opcode = bits & 0b11;
+		addresses[pc & 0xFF]++;
+		opcodes[opcode]++;
+		instructions++;
+
+		if (opcode == OP_FUNC) {
+			funcs[(bits >> 2) & 0x3F]++;
+		}
+	}
+
+	public void countIO(int port) {
+		ports[port & 0xFF]++;
+	}
+
+	public long getInstructions() {
+		return instructions;
+	}
+
+	public long getAddress(int addr) {
+		return addresses[addr & 0xFF];
+	}
+
+	public long getOpcode(int opcode) {
+		return opcodes[opcode & 0b11];
+	}
+
+	public long getFunc(int func) {
+		return funcs[func & 0x3F];
+	}
+
+	public long getPort(int port) {
+		return ports[port & 0xFF];
+	}
+
+	public void clear() {
+		Arrays.fill(addresses, 0);
+		Arrays.fill(opcodes, 0);
+		Arrays.fill(funcs, 0);
+		Arrays.fill(ports, 0);
+		instructions = 0;
+	}
+
+	/**
+	 * Writes a flat profile, one line per counter that isn't zero, most
+	 * executed first within each section.
+	 */
+	public void write(PrintStream out) {
+		out.printf("instructions %d%n", instructions);
+
+		for (int addr : sorted(addresses)) {
+			line(out, String.format("pc $%02x", addr), addresses[addr], instructions);
+		}
+
+		for (int opcode : sorted(opcodes)) {
+			line(out, "op " + OPCODE_NAMES[opcode], opcodes[opcode], instructions);
+		}
+
+		for (int func : sorted(funcs)) {
+			line(out, "func " + FUNC_NAMES[func], funcs[func], opcodes[OP_FUNC]);
+		}
+
+		for (int port : sorted(ports)) {
+			line(out, "io " + port, ports[port], funcs[F_IO]);
+		}
+	}
+
+	protected static void line(PrintStream out, String name, long count, long total) {
+		out.printf(Locale.ROOT, "%s %d %.2f%%%n", name, count, 100.0 * count / StrictMath.max(total, 1));
+	}
+
+	protected static List<Integer> sorted(long[] counts) {
+		ArrayList<Integer> indices = new ArrayList<>();
+
+		for (int i=0; i < counts.length; i++) {
+			if (counts[i] > 0) {
+				indices.add(i);
+			}
+		}
+
+		indices.sort((a, b) -> Long.compare(counts[b], counts[a]));
+		return indices;
+	}
+
+	protected static final String[] OPCODE_NAMES = {"func", "push", "pop", "branch"};
+	protected static final String[] FUNC_NAMES = new String[64];
+
+	static {
+		for (int func=0; func < FUNC_NAMES.length; func++) {
+			String name = VMFuncTable.unparse(func);
+			FUNC_NAMES[func] = name != null ? name : Integer.toString(func);
+		}
+	}
+}
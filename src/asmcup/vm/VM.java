@@ -10,6 +10,13 @@ public class VM implements VMConsts {
 	private final byte[] ram;
 	private int pc, sp;
 	private boolean io;
+	
+	// Pre-decoded instruction cache, null unless enabled with setPredecoded()
+	private long[] decoded;
+	// Addresses some cached translation was made from, null if nothing is cached
+	private boolean[] covered;
+	// Counts executed instructions, null unless profiling
+	private Profile profile;
 
 	public VM() {
 		this.ram = new byte[256];
@@ -57,6 +64,10 @@ public class VM implements VMConsts {
 	public int getProgramCounter() {
 		return pc;
 	}
+	
+	protected void setProgramCounter(int pc) {
+		this.pc = pc & 0xFF;
+	}
 
 	public int getStackPointer() {
 		return 0xFF - sp;
@@ -106,6 +117,10 @@ public class VM implements VMConsts {
 	
 	public void write8(int addr, int value) {
 		ram[addr & 0xFF] = (byte)value;
+		
+		if (covered != null && covered[addr & 0xFF]) {
+			invalidate(addr & 0xFF);
+		}
 	}
 	
 	public void write16(int addr, int value) {
@@ -124,6 +139,11 @@ public class VM implements VMConsts {
 
 	public void push8(int x) {
 		ram[0xFF - sp] = (byte) x;
+		
+		if (covered != null && covered[0xFF - sp]) {
+			invalidate(0xFF - sp);
+		}
+		
 		sp = (sp + 1) & 0xFF;
 	}
 	
@@ -195,8 +215,117 @@ public class VM implements VMConsts {
 	public void setIO(boolean io) {
 		this.io = io;
 	}
+	
+	protected boolean peekIO() {
+		return io;
+	}
 
+	public boolean isPredecoded() {
+		return decoded != null;
+	}
+	
+	/**
+	 * Enables or disables the pre-decoded execution engine. When enabled each
+	 * address is decoded once into a handler and its operands, and the entry
+	 * is discarded whenever a byte it was decoded from is written.
+	 */
+	public void setPredecoded(boolean enabled) {
+		if (!enabled) {
+			decoded = null;
+		} else if (decoded == null) {
+			decoded = new long[256];
+		}
+	}
+	
+	/**
+	 * Discards all cached translations of memory, pre-decoded instructions
+	 * included. Must be called after changing memory directly through
+	 * {@link #getMemory()}.
+	 */
+	public void invalidate() {
+		if (decoded != null) {
+			Arrays.fill(decoded, 0);
+		}
+		
+		if (covered != null) {
+			Arrays.fill(covered, false);
+		}
+	}
+	
+	/**
+	 * Called when a covered address is written, subclasses caching their own
+	 * translations of memory must drop every one made from this address.
+	 */
+	protected void invalidate(int addr) {
+		if (decoded != null) {
+			// An instruction is at most 5 bytes, so only the entries decoded
+			// from one of the 4 preceding addresses can cover this byte.
+			for (int i=0; i < 5; i++) {
+				decoded[(addr - i) & 0xFF] = 0;
+			}
+		}
+		
+		covered[addr] = false;
+	}
+	
+	protected void cover(int addr) {
+		if (covered == null) {
+			covered = new boolean[256];
+		}
+		
+		covered[addr & 0xFF] = true;
+	}
+	
+	/**
+	 * Runs instructions until one of them sets the io flag or maxCycles have
+	 * been used, whichever comes first. Callers can then handle the io and
+	 * account for all the cycles at once.
+	 * <p>
+	 * This loops over {@link #tick()} with pc and sp left in their fields,
+	 * rather than a copy of the interpreter working on locals. PlaybackVM
+	 * replaces tick() and RecordedVM hooks pop8(), and a copy would bypass
+	 * both. What this saves is the per-cycle io and battery handling in
+	 * Robot. With {@link #setPredecoded(boolean)} each tick() skips decoding,
+	 * and {@link JitVM} overrides this to run compiled blocks instead.
+	 * @return the number of cycles used
+	 */
+	public int run(int maxCycles) {
+		int cycles = 0;
+		
+		while (cycles < maxCycles) {
+			tick();
+			cycles++;
+			
+			if (io) {
+				break;
+			}
+		}
+		
+		return cycles;
+	}
+	
+	public Profile getProfile() {
+		return profile;
+	}
+	
+	/**
+	 * Starts counting every instruction executed into the profile, or stops
+	 * when null. Subclasses that translate code interpret it while profiling.
+	 */
+	public void setProfile(Profile profile) {
+		this.profile = profile;
+	}
+	
 	public void tick() {
+		if (profile != null) {
+			profile.count(pc, ram[pc]);
+		}
+		
+		if (decoded != null) {
+			tickDecoded();
+			return;
+		}
+		
 		int bits = read8();
 		int opcode = bits & 0b11;
 		int data = bits >> 2;
@@ -217,6 +346,159 @@ public class VM implements VMConsts {
 		}
 	}
 
+	protected void tickDecoded() {
+		long entry = decoded[pc];
+		
+		if (entry == 0) {
+			entry = decode(pc);
+		}
+		
+		int op = (int)(entry >>> 40) & 0xFF;
+		int arg = (int)entry;
+		pc = (int)(entry >>> 32) & 0xFF;
+		
+		switch (op) {
+		case D_PUSH_BYTE:
+			push8(arg);
+			break;
+		case D_PUSH_BYTE_MEMORY:
+			push8(read8(arg));
+			break;
+		case D_PUSH_FLOAT:
+			pushFloat(Float.intBitsToFloat(arg));
+			break;
+		case D_PUSH_FLOAT_MEMORY:
+			pushFloat(Float.intBitsToFloat(read32(arg)));
+			break;
+		case D_POP_BYTE:
+			write8(arg, pop8());
+			break;
+		case D_POP_FLOAT:
+			writeFloat(arg, popFloat());
+			break;
+		case D_POP_BYTE_INDIRECT:
+			write8(read8(arg), pop8());
+			break;
+		case D_POP_FLOAT_INDIRECT:
+			writeFloat(read8(arg), popFloat());
+			break;
+		case D_JUMP:
+			pc = arg;
+			break;
+		case D_JUMP_INDIRECT:
+			pc = read8(arg);
+			break;
+		case D_BRANCH:
+			if (pop8() != 0) {
+				pc = arg;
+			}
+			break;
+		default:
+			op_func(op);
+			break;
+		}
+	}
+	
+	protected long decode(int addr) {
+		int bits = read8(addr);
+		int data = bits >> 2;
+		int next = addr + 1;
+		int op, arg = 0;
+		
+		switch (bits & 0b11) {
+		case OP_PUSH:
+			switch (data) {
+			case MAGIC_PUSH_BYTE_IMMEDIATE:
+				op = D_PUSH_BYTE;
+				arg = read8(next);
+				next++;
+				break;
+			case MAGIC_PUSH_BYTE_MEMORY:
+				op = D_PUSH_BYTE_MEMORY;
+				arg = read8(next);
+				next++;
+				break;
+			case MAGIC_PUSH_FLOAT_IMMEDIATE:
+				op = D_PUSH_FLOAT;
+				arg = read32(next);
+				next += 4;
+				break;
+			case MAGIC_PUSH_FLOAT_MEMORY:
+				op = D_PUSH_FLOAT_MEMORY;
+				arg = read8(next);
+				next++;
+				break;
+			default:
+				op = D_PUSH_BYTE_MEMORY;
+				arg = (next + data - 32) & 0xFF;
+				break;
+			}
+			break;
+		case OP_POP:
+			switch (data) {
+			case MAGIC_POP_BYTE:
+				op = D_POP_BYTE;
+				arg = read8(next);
+				next++;
+				break;
+			case MAGIC_POP_FLOAT:
+				op = D_POP_FLOAT;
+				arg = read8(next);
+				next++;
+				break;
+			case MAGIC_POP_BYTE_INDIRECT:
+				op = D_POP_BYTE_INDIRECT;
+				arg = read8(next);
+				next++;
+				break;
+			case MAGIC_POP_FLOAT_INDIRECT:
+				op = D_POP_FLOAT_INDIRECT;
+				arg = read8(next);
+				next++;
+				break;
+			default:
+				op = D_POP_BYTE;
+				arg = (next + data - 32) & 0xFF;
+				break;
+			}
+			break;
+		case OP_BRANCH:
+			switch (data) {
+			case MAGIC_BRANCH_ALWAYS:
+				op = D_JUMP;
+				arg = read8(next);
+				next++;
+				break;
+			case MAGIC_BRANCH_IMMEDIATE:
+				op = D_BRANCH;
+				arg = read8(next);
+				next++;
+				break;
+			case MAGIC_BRANCH_INDIRECT:
+				op = D_JUMP_INDIRECT;
+				arg = read8(next);
+				next++;
+				break;
+			default:
+				op = D_BRANCH;
+				arg = (next + data - 32) & 0xFF;
+				break;
+			}
+			break;
+		default:
+			op = data;
+			break;
+		}
+		
+		for (int i = addr; i < next; i++) {
+			cover(i);
+		}
+		
+		long entry = D_VALID | ((long)op << 40) | ((long)(next & 0xFF) << 32) | (arg & 0xFFFFFFFFL);
+		decoded[addr] = entry;
+		return entry;
+	}
+	
 	public void op_func(int data) {
 		switch (data) {
 		case F_NOP:
@@ -483,4 +765,19 @@ public class VM implements VMConsts {
 			break;
 		}
 	}
+	
+	// Handlers of the pre-decoded engine, 0 to 63 are the VMFuncs themselves.
+	// An entry packs the handler, the next pc and a 32-bit operand.
+	private static final long D_VALID = 1L << 48;
+	private static final int D_PUSH_BYTE = 64;
+	private static final int D_PUSH_BYTE_MEMORY = 65;
+	private static final int D_PUSH_FLOAT = 66;
+	private static final int D_PUSH_FLOAT_MEMORY = 67;
+	private static final int D_POP_BYTE = 68;
+	private static final int D_POP_FLOAT = 69;
+	private static final int D_POP_BYTE_INDIRECT = 70;
+	private static final int D_POP_FLOAT_INDIRECT = 71;
+	private static final int D_JUMP = 72;
+	private static final int D_JUMP_INDIRECT = 73;
+	private static final int D_BRANCH = 74;
 }
@@ -1,11 +1,9 @@
-package asmcup.compiler;
+package asmcup.vm;
 
 import java.lang.reflect.Field;
 import java.util.HashMap;
 import java.util.Map;
 
-import asmcup.vm.VMFuncs;
-
 public class VMFuncTable {
 	private static final Map<String, Integer> funcs;
 	private static final Map<Integer, String> reverse;
@@ -0,0 +1,121 @@
+package asmcup.compiler;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class IncrementalCompilerTest {
+	private static final String[] SOURCE = {
+		"start:",
+		"  pushf #1.0",
+		"  push8 #IO_MOTOR",
+		"  io",
+		"loop: push8 #IO_SENSOR",
+		"  io",
+		"  pop8 hit",
+		"  popf distance",
+		"  pushf distance",
+		"  pushf #64.0",
+		"  if_ltf",
+		"  jnz turn",
+		"  jnzr loop",
+		"  c_0f",
+		"  push8 #IO_STEER",
+		"  io",
+		"  jmp loop",
+		"turn: pushf #0.5 ; steer",
+		"  push8 &table",
+		"  pop8 (hit)",
+		"  jmp [distance]",
+		"hit: db8 #0",
+		"distance: dbf #0.0",
+		"table: db #1, #2, #3, #$ff",
+		"floats: dbf #1.5, #-2.25, #1e3",
+	};
+
+	private static String compileFull(String[] source) {
+		try {
+			return Arrays.toString(new Compiler().compile(source));
+		} catch (IllegalArgumentException e) {
+			return e.getMessage();
+		}
+	}
+
+	private static String compileIncremental(IncrementalCompiler compiler, String[] source) {
+		try {
+			return Arrays.toString(compiler.compile(source));
+		} catch (IllegalArgumentException e) {
+			return e.getMessage();
+		}
+	}
+
+	@Test
+	public void testRandomEditsMatchFullCompile() {
+		Random random = new Random(23);
+		IncrementalCompiler compiler = new IncrementalCompiler();
+		ArrayList<String> source = new ArrayList<>(Arrays.asList(SOURCE));
+		String[] extra = {"  c_1", "  dbf #7.0, #8.0", "table:", "  push8 nowhere", "  bogus", "", "  jnzr start", "  jmp turn"};
+
+		for (int edit = 0; edit < 2000; edit++) {
+			int at = random.nextInt(source.size() + 1);
+
+			switch (random.nextInt(3)) {
+			case 0:
+				source.add(at, extra[random.nextInt(extra.length)]);
+				break;
+			case 1:
+				if (at < source.size() && source.size() > 1) {
+					source.remove(at);
+				}
+				break;
+			default:
+				if (at < source.size()) {
+					source.set(at, SOURCE[random.nextInt(SOURCE.length)]);
+				}
+				break;
+			}
+
+			String[] lines = source.toArray(new String[source.size()]);
+			assertEquals("Edit " + edit, compileFull(lines), compileIncremental(compiler, lines));
+		}
+	}
+
+	@Test
+	public void testOnlyEditedLinesAreParsed() {
+		IncrementalCompiler compiler = new IncrementalCompiler();
+		compiler.compile(SOURCE);
+		assertEquals(SOURCE.length, compiler.linesParsed);
+
+		String[] edited = SOURCE.clone();
+		edited[3] = "  c_1";
+		byte[] ram = compiler.compile(edited);
+
+		assertEquals(1, compiler.linesParsed);
+		assertArrayEquals(new Compiler().compile(edited), ram);
+	}
+
+	@Test
+	public void testMovedLabelRecompilesReferences() {
+		IncrementalCompiler compiler = new IncrementalCompiler();
+		compiler.compile(SOURCE);
+
+		// Growing the data at the end moves nothing the code refers to
+		String[] grown = SOURCE.clone();
+		grown[SOURCE.length - 1] = "floats: dbf #1.5, #-2.25, #1e3, #4.0";
+		compiler.compile(grown);
+		assertEquals(1, compiler.linesCompiled);
+
+		// Growing a line near the start moves every line after it
+		String[] moved = grown.clone();
+		moved[1] = "  pushf #1.25";
+		Compiler full = new Compiler();
+		assertArrayEquals(full.compile(moved), compiler.compile(moved));
+		assertEquals(moved.length - 1, compiler.linesCompiled);
+		assertEquals(full.getBytesUsed(), compiler.getBytesUsed());
+	}
+}
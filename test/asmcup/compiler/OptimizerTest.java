@@ -0,0 +1,196 @@
+package asmcup.compiler;
+
+import asmcup.vm.VM;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OptimizerTest {
+
+	// Runs the program until it reaches the label end and returns its memory
+	private static byte[] run(String[] source) {
+		Compiler compiler = new Compiler();
+		byte[] ram = compiler.compile(source);
+		int end = -1;
+
+		for (int i = 0; i < source.length; i++) {
+			if (source[i].trim().startsWith("end:")) {
+				Compiler before = new Compiler();
+				before.compile(Arrays.copyOf(source, i));
+				end = before.getBytesUsed();
+			}
+		}
+
+		VM vm = new VM(ram);
+
+		for (int cycle = 0; cycle < 1000 && vm.getProgramCounter() != end; cycle++) {
+			vm.tick();
+		}
+
+		assertEquals(end, vm.getProgramCounter());
+		return Arrays.copyOfRange(vm.getMemory(), vm.getStackPointer() + 1, 256);
+	}
+
+	@Test
+	public void testFoldsConstants() {
+		Optimizer optimizer = new Optimizer();
+		String[] source = {"push8 #5", "push8 #3", "add8", "pushf #2.0", "pushf #0.25", "mulf", "end: jmp end"};
+		String[] optimized = optimizer.optimize(source);
+
+		assertEquals(Arrays.asList("\tpush8 #8", "\tpushf #0.5", "end: jmp end"), Arrays.asList(optimized));
+		assertArrayEquals(run(source), run(optimized));
+	}
+
+	@Test
+	public void testFoldsIntoConstantFunctions() {
+		Optimizer optimizer = new Optimizer();
+		String[] source = {"c_1", "c_1", "add8", "nop", "pushf #1.5", "pushf #2.0", "mulf", "end: jmp end"};
+		String[] optimized = optimizer.optimize(source);
+
+		assertEquals(Arrays.asList("\tc_2", "\tc_3f", "end: jmp end"), Arrays.asList(optimized));
+		assertArrayEquals(run(source), run(optimized));
+	}
+
+	@Test
+	public void testFindsShorterFunctions() {
+		Optimizer optimizer = new Optimizer();
+		String[] source = {
+			"push8 $80",
+			"dup8",
+			"add8",
+			"c_255",
+			"not",
+			"add8",
+			"pop8 $81",
+			"end: jmp end",
+		};
+		String[] optimized = optimizer.optimize(source);
+
+		// x + x is x shifted left, and adding zero does nothing
+		assertEquals(Arrays.asList("push8 $80", "\tshl", "pop8 $81", "end: jmp end"), Arrays.asList(optimized));
+	}
+
+	private static Optimizer.Op[] ops(String... code) {
+		Optimizer.Op[] ops = new Optimizer.Op[code.length];
+
+		for (int i = 0; i < code.length; i++) {
+			ops[i] = Optimizer.compile(code[i])[0];
+		}
+
+		return ops;
+	}
+
+	@Test
+	public void testEquivalenceIsProven() {
+		assertTrue(Optimizer.equivalent(ops("dup8", "add8"), ops("shl")));
+		assertTrue(Optimizer.equivalent(ops("dup8", "or"), ops()));
+		assertTrue(Optimizer.equivalent(ops("b2f", "f2b"), ops()));
+		// Equal when the byte is zero, so a zero stack can't tell them apart
+		assertFalse(Optimizer.equivalent(ops("dup8", "or"), ops("shl")));
+		// Always equal, but a whole float is too many values to try
+		assertFalse(Optimizer.equivalent(ops("absf", "absf"), ops("absf")));
+		assertFalse(Optimizer.equivalent(ops("dupf", "addf", "if_ltf"), ops("if_ltf")));
+	}
+
+	private static void assertUnchanged(String... source) {
+		assertEquals(Arrays.asList(source), Arrays.asList(new Optimizer().optimize(source)));
+	}
+
+	@Test
+	public void testKeepsWhatDependsOnTheStack() {
+		// Equal to dropping dupf and addf on many stacks but not on x = 1.5, y = 1.0
+		assertUnchanged("jmp start", "x: dbf #1.5", "y: dbf #1.0",
+			"start: pushf x", "pushf y", "dupf", "addf", "if_ltf", "pop8 $80", "end: jmp end");
+
+		assertUnchanged("pushf x", "absf", "if_ne8", "end: jmp end", "x: dbf #1.5");
+		assertUnchanged("pushf x", "cos", "absf", "if_eq8", "end: jmp end", "x: dbf #1.5");
+		assertUnchanged("pushf x", "c_4", "or", "isnan", "end: jmp end", "x: dbf #1.5");
+		assertUnchanged("pushf x", "pushf x", "tan", "c_0f", "maddf", "end: jmp end", "x: dbf #1.5");
+	}
+
+	@Test
+	public void testRandomProgramsKeepTheirResult() {
+		// Instruction, bytes popped, bytes pushed
+		Object[][] instructions = {
+			{"c_0", 0, 1}, {"c_1", 0, 1}, {"c_255", 0, 1}, {"push8 #7", 0, 1},
+			{"c_1f", 0, 4}, {"pushf #0.5", 0, 4}, {"pushf #-0.0", 0, 4},
+			{"add8", 2, 1}, {"sub8", 2, 1}, {"xor", 2, 1}, {"not", 1, 1}, {"shl", 1, 1},
+			{"dup8", 1, 2}, {"b2f", 1, 4}, {"f2b", 4, 1}, {"negf", 4, 4},
+			{"addf", 8, 4}, {"mulf", 8, 4}, {"absf", 4, 4}, {"if_eq8", 2, 1}, {"nop", 0, 0},
+			{"c_4", 0, 1}, {"or", 2, 1}, {"if_ne8", 2, 1}, {"dupf", 4, 8}, {"cos", 4, 4},
+			{"isnan", 4, 1}, {"if_ltf", 8, 1}, {"push8 $c0", 0, 1}, {"pushf $c0", 0, 4},
+		};
+		Random random = new Random(24);
+
+		for (int program = 0; program < 200; program++) {
+			ArrayList<String> source = new ArrayList<>();
+			int depth = 0;
+
+			while (source.size() < 12) {
+				Object[] instruction = instructions[random.nextInt(instructions.length)];
+
+				if ((int)instruction[1] <= depth && depth < 48) {
+					source.add((String)instruction[0]);
+					depth += (int)instruction[2] - (int)instruction[1];
+				}
+			}
+
+			source.add("end: jmp end");
+			String[] original = source.toArray(new String[source.size()]);
+			String[] optimized = new Optimizer().optimize(original);
+
+			assertArrayEquals(source.toString(), run(original), run(optimized));
+		}
+	}
+
+	@Test
+	public void testRemovesDeadCodeAndThreadsJumps() {
+		Optimizer optimizer = new Optimizer();
+		String[] optimized = optimizer.optimize(new String[] {
+			"jmp a",
+			"c_1",
+			"c_2",
+			"a: jmp b",
+			"b: jnz c",
+			"data: db #1, #2",
+			"c: jmp d",
+			"d: c_0",
+			"end: jmp end"});
+
+		// Everything jumps straight to b, so no jumps are left but the loop
+		assertEquals(Arrays.asList(
+			"a:",
+			"b:\tjnz d",
+			"data: db #1, #2",
+			"c:",
+			"d: c_0",
+			"end: jmp end"), Arrays.asList(optimized));
+	}
+
+	@Test
+	public void testReportsSavingsPerFunction() {
+		Optimizer optimizer = new Optimizer();
+		optimizer.optimize(new String[] {
+			"push8 &func",
+			"jsr",
+			"end: jmp end",
+			"func: c_1",
+			"c_1",
+			"add8",
+			"ret",
+			"c_0"});
+
+		Optimizer.Saving saving = optimizer.getSavings().iterator().next();
+		assertEquals("func", saving.function);
+		assertEquals(3, saving.bytes);
+		assertEquals(2, saving.cycles);
+		assertEquals(1, optimizer.getSavings().size());
+	}
+}
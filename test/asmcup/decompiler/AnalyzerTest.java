@@ -0,0 +1,113 @@
+package asmcup.decompiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.junit.Test;
+
+import asmcup.compiler.Compiler;
+import asmcup.runtime.Robot;
+
+import static org.junit.Assert.*;
+
+public class AnalyzerTest {
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+	private final Analyzer analyzer = new Analyzer(new PrintStream(out));
+
+	private void analyze(String... lines) {
+		analyzer.analyze(new Compiler().compile(String.join("\n", lines)));
+	}
+
+	@Test
+	public void testBalancedLoop() {
+		analyze(
+			"start:",
+			"push8 #1",
+			"push8 #2",
+			"add8",
+			"pop8 $f0",
+			"jmp start");
+
+		assertEquals(2, analyzer.getMaxDepth());
+		assertEquals(1, analyzer.getLoops().size());
+		assertEquals(5, analyzer.getLoops().get(0).worst);
+		assertEquals(5, analyzer.getLoops().get(0).typical);
+		assertTrue(analyzer.getWarnings().isEmpty());
+	}
+
+	@Test
+	public void testGrowingLoop() {
+		analyze(
+			"start:",
+			"push8 #1",
+			"jmp start");
+
+		assertEquals(-1, analyzer.getMaxDepth());
+		assertTrue(analyzer.getLoops().get(0).grows);
+		assertEquals(1, analyzer.getWarnings().size());
+	}
+
+	@Test
+	public void testBranches() {
+		analyze(
+			"start:",
+			"push8 $f0",
+			"jnz skip",
+			"push8 #7",
+			"pop8 $f1",
+			"skip:",
+			"jmp start");
+
+		Analyzer.Loop loop = analyzer.getLoops().get(0);
+		assertEquals(3, loop.typical);
+		assertEquals(5, loop.worst);
+		assertEquals(1, analyzer.getMaxDepth());
+	}
+
+	@Test
+	public void testSubroutine() {
+		analyze(
+			"start:",
+			"push8 &func",
+			"jsr",
+			"jmp start",
+			"func:",
+			"push8 #9",
+			"pop8 $f0",
+			"ret");
+
+		assertEquals(2, analyzer.getMaxDepth());
+		assertTrue(analyzer.getWarnings().isEmpty());
+		assertEquals(6, analyzer.getLoops().get(0).worst);
+	}
+
+	@Test
+	public void testOverclockAndLazer() {
+		analyze(
+			"push8 #50",
+			"push8 #3",
+			"io",
+			"start:",
+			"pushf #1.0",
+			"push8 #4",
+			"io",
+			"jmp start");
+
+		assertTrue(analyzer.getOverclocks().contains(50));
+		assertEquals(5, analyzer.getMaxDepth());
+		assertTrue(analyzer.batteryPerFrame(50) > 51);
+		assertTrue(out.toString().contains("50* 51"));
+	}
+
+	@Test
+	public void testComputedJump() {
+		analyze(
+			"push8 $f0",
+			"jsr",
+			"end: jmp end");
+
+		assertEquals(1, analyzer.getWarnings().size());
+		assertTrue(analyzer.getWarnings().get(0).contains("computed"));
+		assertEquals(Robot.OVERCLOCK_MAX + 1, analyzer.batteryPerFrame(Robot.OVERCLOCK_MAX));
+	}
+}
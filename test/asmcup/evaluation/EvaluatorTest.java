@@ -0,0 +1,68 @@
+package asmcup.evaluation;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+
+public class EvaluatorTest {
+	private Evaluator evaluator = null;
+	private byte[] rom = null;
+
+	@Before
+	public void setUp() {
+		evaluator = new Evaluator(false);
+		evaluator.maxSimFrames = 50;
+		evaluator.extraWorldCount = 3;
+		evaluator.directionsPerSpawn = 4;
+		evaluator.baseSeed = 1234;
+
+		rom = new byte[256];
+		new Random(42).nextBytes(rom);
+	}
+
+	@Test
+	public void testSameSpawnRepeated() {
+		evaluator.threads = 1;
+		float first = evaluator.score(rom);
+		float second = evaluator.score(rom);
+		assertEquals(Float.floatToRawIntBits(first), Float.floatToRawIntBits(second));
+	}
+
+	@Test
+	public void testParallelMatchesSerial() {
+		evaluator.threads = 1;
+		float serial = evaluator.score(rom);
+
+		evaluator.threads = 4;
+		float parallel = evaluator.score(rom);
+
+		assertEquals(Float.floatToRawIntBits(serial), Float.floatToRawIntBits(parallel));
+	}
+
+	@Test
+	public void testNestedScoringStaysInPool() throws Exception {
+		evaluator.threads = 1;
+		float serial = evaluator.score(rom);
+
+		evaluator.threads = 4;
+		ForkJoinPool pool = Evaluator.getPool(2);
+		float nested = pool.submit(() -> evaluator.score(rom)).get();
+
+		assertEquals(Float.floatToRawIntBits(serial), Float.floatToRawIntBits(nested));
+	}
+
+	@Test
+	public void testJitMatchesInterpreter() {
+		evaluator.threads = 1;
+		float interpreted = evaluator.score(rom);
+
+		evaluator.jit = true;
+		float compiled = evaluator.score(rom);
+
+		assertEquals(Float.floatToRawIntBits(interpreted), Float.floatToRawIntBits(compiled));
+	}
+}
@@ -0,0 +1,39 @@
+package asmcup.genetics;
+
+import org.junit.Test;
+
+import asmcup.evaluation.Evaluator;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class GeneticAlgorithmTest {
+	private GeneticAlgorithm createGA(int threads) {
+		Evaluator evaluator = new Evaluator(true);
+		evaluator.maxSimFrames = 20;
+		evaluator.extraWorldCount = 2;
+		evaluator.threads = threads;
+
+		GeneticAlgorithm ga = new GeneticAlgorithm(evaluator, 1337);
+		ga.threads = threads;
+		return ga;
+	}
+
+	@Test
+	public void testParallelGenerationReproducible() {
+		GeneticAlgorithm serial = createGA(1);
+		GeneticAlgorithm parallel = createGA(4);
+		serial.initializePopulation(8);
+		parallel.initializePopulation(8);
+
+		for (int i = 0; i < 3; i++) {
+			serial.nextGeneration();
+			parallel.nextGeneration();
+		}
+
+		for (int i = 0; i < serial.population.length; i++) {
+			assertArrayEquals(serial.population[i].dna, parallel.population[i].dna);
+			assertEquals(serial.population[i].score, parallel.population[i].score, 0.0f);
+		}
+	}
+}
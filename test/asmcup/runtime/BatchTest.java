@@ -0,0 +1,153 @@
+package asmcup.runtime;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+public class BatchTest {
+
+	@Test
+	public void testMatchesRunLikeMain() throws Exception {
+		Random random = new Random(3);
+		String[] roms = new String[4];
+
+		for (int i = 0; i < roms.length; i++) {
+			byte[] rom = new byte[256];
+			random.nextBytes(rom);
+			roms[i] = Base64.getEncoder().encodeToString(rom);
+		}
+
+		Batch batch = new Batch();
+		ByteArrayOutputStream batchOutput = new ByteArrayOutputStream();
+		batch.threads = 3;
+		batch.out = new PrintStream(batchOutput);
+		batch.err = new PrintStream(new ByteArrayOutputStream());
+
+		for (int match = 0; match < 6; match++) {
+			batch.configure("match m" + match);
+			batch.configure("record 1");
+			batch.configure("seed " + match);
+			batch.configure("frames 50");
+			batch.configure("bot 1 " + roms[match % roms.length]);
+			batch.configure("bot 2 " + roms[(match + 1) % roms.length]);
+		}
+
+		batch.run();
+		String output = batchOutput.toString("US-ASCII");
+
+		for (int match = 0; match < 6; match++) {
+			Main main = new Main();
+			ByteArrayOutputStream mainOutput = new ByteArrayOutputStream();
+			main.out = new PrintStream(mainOutput);
+			main.configure("record 1");
+			main.configure("seed " + match);
+			main.configure("frames 50");
+			main.configure("bot 1 " + roms[match % roms.length]);
+			main.configure("bot 2 " + roms[(match + 1) % roms.length]);
+			main.run();
+
+			String header = String.format("match %d m%d%n", match, match);
+			int start = output.indexOf(header);
+			int end = output.indexOf(String.format("end %d ", match));
+			assertTrue("Missing match " + match, start >= 0 && end > start);
+
+			String block = output.substring(start + header.length(), end);
+			String io = block.substring(0, block.indexOf("bot "));
+			assertEquals(mainOutput.toString("US-ASCII"), io);
+		}
+	}
+
+	@Test
+	public void testBadMatchIsReported() throws Exception {
+		Batch batch = new Batch();
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		batch.out = new PrintStream(output);
+		batch.err = new PrintStream(new ByteArrayOutputStream());
+		batch.configure("match broken");
+		batch.configure("nonsense 1");
+		batch.configure("match empty");
+		batch.configure("seed 1");
+		batch.configure("frames 5");
+		batch.run();
+
+		String text = output.toString("US-ASCII");
+		assertTrue(text.contains("error 0 "));
+		assertTrue(text.contains("end 1 frames 5 "));
+	}
+
+	@Test
+	public void testFailedMatchFinishesItsRecording() throws Exception {
+		Path path = Files.createTempFile("batch", ".rec");
+		Batch batch = new Batch();
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		batch.out = new PrintStream(output);
+		batch.err = new PrintStream(new ByteArrayOutputStream());
+		batch.configure("match broken");
+		batch.configure("recordfile " + path);
+		batch.configure("nonsense 1");
+
+		try {
+			batch.run();
+			assertTrue(output.toString("US-ASCII").contains("error 0 "));
+			// Only the header, but written and closed
+			assertEquals(5, Files.size(path));
+		} finally {
+			Files.delete(path);
+		}
+	}
+
+	@Test
+	public void testOutputStreamsInManifestOrder() throws Exception {
+		Batch batch = new Batch();
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		Thread[] writer = new Thread[1];
+		batch.threads = 3;
+		batch.err = new PrintStream(new ByteArrayOutputStream());
+		batch.out = new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+				if (writer[0] == null) {
+					writer[0] = Thread.currentThread();
+				}
+
+				output.write(b);
+			}
+		});
+
+		// The first match runs longest, the others finish before it
+		for (int match = 0; match < 5; match++) {
+			batch.configure("match m" + match);
+			batch.configure("seed " + match);
+			batch.configure("frames " + (match == 0 ? 2000 : 10));
+		}
+
+		batch.run();
+		String text = output.toString("US-ASCII");
+		int last = -1;
+
+		for (int match = 0; match < 5; match++) {
+			int start = text.indexOf(String.format("match %d m%d%n", match, match));
+			int end = text.indexOf(String.format("end %d ", match));
+			assertTrue(start > last && end > start);
+			last = end;
+		}
+
+		// Written by the worker as the match ran, not after the batch
+		assertNotSame(Thread.currentThread(), writer[0]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCommandBeforeMatch() {
+		new Batch().configure("seed 1");
+	}
+}
@@ -3,7 +3,11 @@ package asmcup.runtime;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Random;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class ItemTest {
@@ -31,9 +35,58 @@ public class ItemTest {
 	public void testCollectBattery() {
 		Robot robot = new Robot(42);
 		Item.Battery battery = new Item.Battery(10);
-		robot.battery = 0;
+		robot.setBattery(0);
 		assertEquals(0, robot.getBattery());
 		battery.collect(robot);
 		assertEquals(1000, robot.getBattery());
 	}
+
+	@Test
+	public void testSquaredDistanceMatchesSquareRoot() {
+		Random random = new Random(3);
+		Item item = new Item.Battery();
+		item.position(100.5f, 200.25f);
+
+		for (int i = 0; i < 100000; i++) {
+			float x = 100.5f + (random.nextFloat() - 0.5f) * 42;
+			float y = 200.25f + (random.nextFloat() - 0.5f) * 42;
+			float dx = x - item.getX();
+			float dy = y - item.getY();
+			boolean expected = StrictMath.sqrt(dx * dx + dy * dy) <= Item.COLLECT_RANGE;
+			assertEquals(expected, item.withinDistance(x, y));
+		}
+	}
+
+	@Test
+	public void testIndexFindsFirstItemInList() {
+		Random random = new Random(9);
+		int cellX = 7, cellY = 3;
+		float left = cellX * World.CELL_SIZE;
+		float top = cellY * World.CELL_SIZE;
+		ArrayList<Item> items = new ArrayList<>();
+
+		// Clustered so points are often in range of several items
+		for (int i = 0; i < 60; i++) {
+			Item item = (i % 2 == 0) ? new Item.Gold() : new Item.Battery();
+			item.position(left + random.nextFloat() * 150, top + random.nextFloat() * 150);
+			items.add(item);
+		}
+
+		ItemIndex index = new ItemIndex(cellX, cellY, items);
+
+		for (int i = 0; i < 20000; i++) {
+			float x = left - 30 + random.nextFloat() * 210;
+			float y = top - 30 + random.nextFloat() * 210;
+			Item expected = null;
+
+			for (Item item : items) {
+				if (item.withinDistance(x, y)) {
+					expected = item;
+					break;
+				}
+			}
+
+			assertSame(expected, index.find(items, x, y));
+		}
+	}
 }
@@ -0,0 +1,32 @@
+package asmcup.runtime;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MainTest {
+
+	@Test
+	public void testSettingsBeforeSeed() {
+		Main main = new Main();
+		main.configure("rays exact");
+		main.configure("marks 64");
+		main.configure("seed 1");
+
+		assertTrue(main.world.isExactRays());
+		assertEquals(64, main.world.getMarks().capacity);
+	}
+
+	@Test
+	public void testSeedKeepsSettings() {
+		Main main = new Main();
+		main.configure("seed 1");
+		main.configure("rays exact");
+		main.configure("marks 64");
+		main.configure("seed 2");
+
+		assertTrue(main.world.isExactRays());
+		assertEquals(64, main.world.getMarks().capacity);
+	}
+}
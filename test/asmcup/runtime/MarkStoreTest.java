@@ -0,0 +1,121 @@
+package asmcup.runtime;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MarkStoreTest {
+
+	@Test
+	public void testBytesArePackedPerTile() {
+		MarkStore marks = new MarkStore();
+		marks.write(7, 0, 0x12, 0);
+		marks.write(7, 3, 0xF0, 0);
+		marks.write(7, 4, 0x34, 0);
+
+		assertEquals(1, marks.size());
+		assertEquals(0xF0000034, marks.get(7));
+		assertEquals(0x34, marks.read(7, 0));
+		assertEquals((byte)0xF0, marks.read(7, 3));
+		assertEquals(0, marks.read(8, 0));
+	}
+
+	@Test
+	public void testOldestMarksAreForgottenPastCapacity() {
+		MarkStore marks = new MarkStore();
+		marks.capacity = 100;
+
+		for (int frame = 0; frame < 10000; frame++) {
+			marks.write(frame, 0, 1, frame);
+			assertTrue(marks.size() <= 100);
+		}
+
+		long memory = marks.getMemoryUsage();
+
+		for (int frame = 10000; frame < 20000; frame++) {
+			marks.write(frame, 0, 1, frame);
+		}
+
+		assertEquals(memory, marks.getMemoryUsage());
+		assertEquals(1, marks.read(19999, 0));
+		assertEquals(1, marks.read(19950, 0));
+		assertEquals(0, marks.read(10000, 0));
+	}
+
+	@Test
+	public void testSameFrameEvictsOneQuarter() {
+		MarkStore marks = new MarkStore();
+		marks.capacity = 4;
+
+		for (int key = 3; key >= 0; key--) {
+			marks.write(key, 0, 1, 0);
+		}
+
+		marks.write(4, 0, 1, 1);
+
+		assertEquals(4, marks.size());
+		assertEquals(0, marks.read(0, 0));
+		assertEquals(1, marks.read(1, 0));
+		assertEquals(1, marks.read(3, 0));
+		assertEquals(1, marks.read(4, 0));
+
+		marks.capacity = 8;
+
+		for (int key = 5; key < 9; key++) {
+			marks.write(key, 0, 1, 1);
+		}
+
+		marks.write(9, 0, 1, 2);
+
+		assertEquals(7, marks.size());
+		assertEquals(0, marks.read(1, 0));
+		assertEquals(0, marks.read(2, 0));
+		assertEquals(1, marks.read(3, 0));
+	}
+
+	@Test
+	public void testRewrittenMarksAreKept() {
+		MarkStore marks = new MarkStore();
+		marks.capacity = 4;
+
+		for (int frame = 0; frame < 100; frame++) {
+			marks.write(0, 0, frame, frame);
+			marks.write(frame + 1, 0, 1, frame);
+		}
+
+		assertEquals(99, marks.read(0, 0));
+	}
+
+	@Test
+	public void testSaveIsIndependentOfInsertOrder() throws IOException {
+		MarkStore a = new MarkStore();
+		MarkStore b = new MarkStore();
+
+		for (int key = 0; key < 50; key++) {
+			a.write(key << 16, key & 3, key, key);
+			b.write((49 - key) << 16, (49 - key) & 3, 49 - key, 49 - key);
+		}
+
+		byte[] saved = save(a);
+		assertArrayEquals(saved, save(b));
+
+		MarkStore loaded = new MarkStore();
+		loaded.load(new DataInputStream(new ByteArrayInputStream(saved)));
+		assertEquals(50, loaded.size());
+		assertEquals(a.get(17 << 16), loaded.get(17 << 16));
+	}
+
+	private static byte[] save(MarkStore marks) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		marks.save(new DataOutputStream(bytes));
+		return bytes.toByteArray();
+	}
+}
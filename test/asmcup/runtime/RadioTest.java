@@ -0,0 +1,80 @@
+package asmcup.runtime;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class RadioTest {
+
+	private static Robot robot(World world, int id, float x, float y) {
+		Robot robot = new Robot(id);
+		robot.position(x, y);
+		world.addRobot(robot);
+		return robot;
+	}
+
+	@Test
+	public void testMessageIsHeardNextFrame() {
+		World world = new World(1);
+		Robot sender = robot(world, 1, World.CENTER, World.CENTER);
+		Robot near = robot(world, 2, World.CENTER + 100, World.CENTER);
+
+		world.send(sender, 5.0f, 42);
+		assertEquals(0, world.recv(near, 5.0f));
+
+		world.tick();
+		assertEquals(42, world.recv(near, 5.0f));
+		assertEquals(0, world.recv(near, 5.0f));
+
+		world.tick();
+		assertEquals(0, world.recv(near, 5.0f));
+	}
+
+	@Test
+	public void testOnlyTunedRobotsInRangeHear() {
+		World world = new World(1);
+		Robot sender = robot(world, 1, World.CENTER, World.CENTER);
+		Robot near = robot(world, 2, World.CENTER, World.CENTER + Robot.RADIO_RANGE - 1);
+		Robot far = robot(world, 3, World.CENTER, World.CENTER + Robot.RADIO_RANGE + 1);
+
+		world.send(sender, 5.0f, 42);
+		world.tick();
+
+		assertEquals(0, world.recv(sender, 5.0f));
+		assertEquals(0, world.recv(near, 6.0f));
+		assertEquals(42, world.recv(near, 5.0f));
+		assertEquals(0, world.recv(far, 5.0f));
+	}
+
+	@Test
+	public void testOrderDoesNotDependOnTickOrder() {
+		World a = new World(1);
+		World b = new World(1);
+		Robot listener = robot(a, 0, World.CENTER, World.CENTER);
+		Robot a1 = robot(a, 1, World.CENTER + 100, World.CENTER);
+		Robot a2 = robot(a, 2, World.CENTER + 200, World.CENTER);
+		Robot b2 = robot(b, 2, World.CENTER + 200, World.CENTER);
+		Robot b1 = robot(b, 1, World.CENTER + 100, World.CENTER);
+		robot(b, 0, World.CENTER, World.CENTER);
+
+		a.send(a1, 0.0f, 1);
+		a.send(a1, 0.0f, 2);
+		a.send(a2, 0.0f, 3);
+		b.send(b2, -0.0f, 3);
+		b.send(b1, 0.0f, 1);
+		b.send(b1, 0.0f, 2);
+		a.tick();
+		b.tick();
+
+		// Messages in flight are part of the snapshot
+		World restored = World.restore(b.snapshot());
+
+		for (World world : new World[] {a, b, restored}) {
+			Robot robot = (world == a) ? listener : world.getRobot(World.CENTER, World.CENTER);
+			assertEquals(1, world.recv(robot, 0.0f));
+			assertEquals(2, world.recv(robot, 0.0f));
+			assertEquals(3, world.recv(robot, 0.0f));
+			assertEquals(0, world.recv(robot, 0.0f));
+		}
+	}
+}
@@ -0,0 +1,196 @@
+package asmcup.runtime;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RayTest {
+
+	@Test
+	public void testVisitsEveryTileOnceInOrder() {
+		Random random = new Random(17);
+
+		for (int i = 0; i < 500; i++) {
+			float x = random.nextFloat() * 1000;
+			float y = random.nextFloat() * 1000;
+			double angle = random.nextDouble() * Math.PI * 2;
+			float cos = (float)StrictMath.cos(angle);
+			float sin = (float)StrictMath.sin(angle);
+			Ray ray = new Ray(x, y, cos, sin, Robot.RAY_RANGE);
+			HashSet<Long> visited = new HashSet<>();
+			int lastCol = 0, lastRow = 0;
+			float lastEnter = -1;
+
+			while (ray.next()) {
+				if (lastEnter >= 0) {
+					int moved = Math.abs(ray.getColumn() - lastCol) + Math.abs(ray.getRow() - lastRow);
+					assertEquals(1, moved);
+				}
+
+				assertTrue(ray.getEnter() >= lastEnter);
+				assertTrue(visited.add(key(ray.getColumn(), ray.getRow())));
+				lastCol = ray.getColumn();
+				lastRow = ray.getRow();
+				lastEnter = ray.getEnter();
+			}
+
+			for (float d = 0; d < Robot.RAY_RANGE; d += 0.25f) {
+				float px = x + cos * d;
+				float py = y + sin * d;
+
+				// Points right on an edge may round into either tile
+				if (nearEdge(px) || nearEdge(py)) {
+					continue;
+				}
+
+				int col = (int)StrictMath.floor(px / World.TILE_SIZE);
+				int row = (int)StrictMath.floor(py / World.TILE_SIZE);
+				assertTrue(visited.contains(key(col, row)));
+			}
+		}
+	}
+
+	@Test
+	public void testExactSensorIsNeverFartherThanSamples() {
+		Random random = new Random(5);
+		World world = new World(5);
+		Robot[] robots = new Robot[200];
+
+		// Near the origin, where positions are precise enough that rounding
+		// samples rarely changes what they hit
+		for (int id = 0; id < robots.length; id++) {
+			float x, y;
+
+			do {
+				x = World.CELL_SIZE * (1 + random.nextFloat() * 4);
+				y = World.CELL_SIZE * (1 + random.nextFloat() * 4);
+			} while (!world.canSpawnRobotAt(x, y));
+
+			robots[id] = new Robot(id);
+			robots[id].position(x, y);
+			world.addRobot(robots[id]);
+		}
+
+		int hits = 0;
+		int nearAxis = 0;
+
+		for (int i = 0; i < 2000; i++) {
+			Robot robot = robots[random.nextInt(robots.length)];
+			robot.setFacing(random.nextFloat() * 7);
+			robot.sensorIgnore = random.nextInt(64);
+
+			world.setExactRays(false);
+			robot.sensorRay(world);
+			int sampledHit = robot.vm.pop8();
+			float sampled = robot.vm.popFloat();
+
+			world.setExactRays(true);
+			robot.sensorRay(world);
+			int exactHit = robot.vm.pop8();
+			float exact = robot.vm.popFloat();
+
+			// Samples can only find something later or step over it, give
+			// or take where rounding their coordinates moves them across
+			// an edge the ray is almost parallel to. That rounding error
+			// grows without bound as the ray nears an axis, so those rays
+			// are only counted.
+			float cos = Math.abs((float)StrictMath.cos(robot.getBeamAngle()));
+			float sin = Math.abs((float)StrictMath.sin(robot.getBeamAngle()));
+
+			if (Math.min(cos, sin) < NEAR_AXIS) {
+				nearAxis++;
+			} else {
+				float slack = 2 * Math.ulp(World.CELL_SIZE * 6.0f) / Math.min(cos, sin);
+				assertTrue(exact <= sampled + Math.max(0.01f, slack));
+			}
+
+			if (exactHit == sampledHit && sampled - exact < Robot.RAY_INTERVAL) {
+				hits++;
+			}
+		}
+
+		assertTrue(hits > 1000);
+		// About 1.3% of random angles, the rest must all have been compared
+		assertTrue(nearAxis < 100);
+	}
+
+	@Test
+	public void testExactLazerStopsAtRobot() {
+		World world = new World(9, null);
+		float x = World.CENTER;
+		float y = World.CENTER + World.TILE_HALF;
+
+		for (int col = -1; col < 5; col++) {
+			world.setTileXY(x + col * World.TILE_SIZE, y, TILE.GROUND);
+		}
+
+		Robot shooter = new Robot(1);
+		Robot target = new Robot(2);
+		world.addRobot(shooter);
+		world.addRobot(target);
+		shooter.position(x, y);
+		target.position(x + 50, y);
+		shooter.setFacing(0);
+		shooter.setLazer(1.0f);
+		world.setExactRays(true);
+
+		int battery = target.getBattery();
+		shooter.tickLazer(world);
+		assertEquals(50 - Robot.COLLIDE_RANGE, shooter.getLazerEnd(), 0.001f);
+		assertEquals(battery - Robot.LAZER_DAMAGE, target.getBattery());
+	}
+
+	@Test
+	public void testIgnoredWallHidesItemsInBothModes() {
+		World world = new World(9, null);
+		float x = World.CENTER + World.TILE_HALF;
+		float y = World.CENTER + World.TILE_HALF;
+
+		// Gold buried in the middle of three walls, a battery past them
+		for (int col = -1; col < 10; col++) {
+			boolean wall = col >= 2 && col <= 4;
+			world.setTileXY(x + col * World.TILE_SIZE, y, wall ? TILE.WALL : TILE.GROUND);
+		}
+
+		world.addItem(x + 3 * World.TILE_SIZE, y, new Item.Gold());
+		world.addItem(x + 7 * World.TILE_SIZE, y, new Item.Battery());
+
+		Robot robot = new Robot(1);
+		world.addRobot(robot);
+		robot.position(x, y);
+		robot.setFacing(0);
+		robot.sensorIgnore = Robot.SENSOR_WALL;
+
+		world.setExactRays(false);
+		robot.sensorRay(world);
+		int sampledHit = robot.vm.pop8();
+		float sampled = robot.vm.popFloat();
+
+		world.setExactRays(true);
+		robot.sensorRay(world);
+		int exactHit = robot.vm.pop8();
+		float exact = robot.vm.popFloat();
+
+		assertEquals(Robot.SENSOR_BATTERY, sampledHit);
+		assertEquals(sampledHit, exactHit);
+		assertEquals(7 * World.TILE_SIZE - Item.COLLECT_RANGE, exact, 0.001f);
+		assertTrue(exact <= sampled && sampled - exact < Robot.RAY_INTERVAL);
+	}
+
+	private static boolean nearEdge(float f) {
+		float offset = f - (float)StrictMath.floor(f / World.TILE_SIZE) * World.TILE_SIZE;
+		return offset < 0.01f || offset > World.TILE_SIZE - 0.01f;
+	}
+
+	private static long key(int col, int row) {
+		return ((long)col << 32) | (row & 0xFFFFFFFFL);
+	}
+
+	// Rays closer to an axis than this, as the sine of the angle, aren't
+	// compared. It caps the slack at 200 ulps.
+	private static final float NEAR_AXIS = 0.01f;
+}
@@ -0,0 +1,89 @@
+package asmcup.runtime;
+
+import asmcup.vm.VM;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RecorderTest {
+
+	@Test
+	public void testBinaryConvertsToText() throws Exception {
+		Random random = new Random(11);
+		ByteArrayOutputStream binary = new ByteArrayOutputStream();
+		ByteArrayOutputStream text = new ByteArrayOutputStream();
+		PrintStream textOut = new PrintStream(text);
+		BinaryRecorder recorder = new BinaryRecorder(Channels.newChannel(binary));
+		int frame = 0;
+
+		for (int i = 0; i < 2000; i++) {
+			frame += random.nextInt(3) * random.nextInt(500);
+			int id = random.nextInt() >> random.nextInt(32);
+			// Mostly small events with a few larger than the write buffer
+			byte[] data = new byte[(i % 500 == 0) ? BinaryRecorder.BUFFER_SIZE + 7 : random.nextInt(12)];
+			random.nextBytes(data);
+
+			recorder.write(frame, id, data);
+			TextRecorder.write(textOut, frame, id, data);
+		}
+
+		recorder.close();
+
+		ByteArrayOutputStream converted = new ByteArrayOutputStream();
+		BinaryRecorder.toText(ByteBuffer.wrap(binary.toByteArray()), new PrintStream(converted));
+		assertEquals(text.toString("US-ASCII"), converted.toString("US-ASCII"));
+	}
+
+	@Test
+	public void testMainRecordFile() throws Exception {
+		// pushf #0.5; push8 #IO_MOTOR; io; jmp $00
+		byte[] rom = new byte[256];
+		ByteBuffer program = ByteBuffer.wrap(rom).order(ByteOrder.LITTLE_ENDIAN);
+		program.put((byte)((VM.MAGIC_PUSH_FLOAT_IMMEDIATE << 2) | VM.OP_PUSH));
+		program.putFloat(0.5f);
+		program.put((byte)((VM.MAGIC_PUSH_BYTE_IMMEDIATE << 2) | VM.OP_PUSH));
+		program.put((byte)Robot.IO_MOTOR);
+		program.put((byte)((VM.F_IO << 2) | VM.OP_FUNC));
+		program.put((byte)((VM.MAGIC_BRANCH_ALWAYS << 2) | VM.OP_BRANCH));
+		program.put((byte)0);
+		String bot = Base64.getEncoder().encodeToString(rom);
+		File file = File.createTempFile("asmcup", ".rec");
+		file.deleteOnExit();
+
+		Main text = new Main();
+		ByteArrayOutputStream textOutput = new ByteArrayOutputStream();
+		text.out = new PrintStream(textOutput);
+		text.configure("seed 4");
+		text.configure("frames 200");
+		text.configure("record 1");
+		text.configure("bot 1 " + bot);
+		text.run();
+
+		Main binary = new Main();
+		binary.configure("seed 4");
+		binary.configure("frames 200");
+		binary.configure("recordfile " + file.getPath());
+		binary.configure("bot 1 " + bot);
+		binary.run();
+
+		ByteArrayOutputStream converted = new ByteArrayOutputStream();
+		byte[] recording = Files.readAllBytes(file.toPath());
+		BinaryRecorder.toText(ByteBuffer.wrap(recording), new PrintStream(converted));
+
+		assertTrue(textOutput.size() > 0);
+		assertTrue(recording.length < textOutput.size());
+		assertEquals(textOutput.toString("US-ASCII"), converted.toString("US-ASCII"));
+	}
+}
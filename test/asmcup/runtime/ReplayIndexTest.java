@@ -0,0 +1,87 @@
+package asmcup.runtime;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ReplayIndexTest {
+
+	@Test
+	public void testIndexFindsEveryEvent() throws Exception {
+		Random random = new Random(21);
+		File file = File.createTempFile("asmcup", ".rec");
+		file.deleteOnExit();
+
+		HashMap<Integer, HashMap<Integer, byte[]>> expected = new HashMap<>();
+		BinaryRecorder recorder = new BinaryRecorder(file.toPath());
+
+		for (int frame = 0; frame < 3000; frame++) {
+			for (int id = -1; id < 3; id++) {
+				if (random.nextInt(4) != 0) {
+					continue;
+				}
+
+				byte[] data = new byte[random.nextInt(10)];
+				random.nextBytes(data);
+				recorder.write(frame, id, data);
+				expected.computeIfAbsent(id, k -> new HashMap<>()).put(frame, data);
+			}
+		}
+
+		recorder.close();
+		ReplayIndex replay = ReplayIndex.open(file.toPath());
+		assertArrayEquals(new int[] {-1, 0, 1, 2}, replay.getRobotIds());
+
+		for (int id = -1; id < 3; id++) {
+			ReplayIndex.Track track = replay.getTrack(id);
+			assertEquals(expected.get(id).size(), track.size());
+
+			// Scrub backwards to make sure lookups don't depend on order
+			for (int frame = 2999; frame >= 0; frame--) {
+				byte[] data = expected.get(id).get(frame);
+
+				if (data == null) {
+					assertNull(track.get(frame));
+				} else {
+					assertArrayEquals(data, track.get(frame));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testPlaybackPushesRecordedBytes() throws Exception {
+		File file = File.createTempFile("asmcup", ".rec");
+		file.deleteOnExit();
+
+		BinaryRecorder recorder = new BinaryRecorder(file.toPath());
+		recorder.write(0, 5, new byte[] {1, 2, 3});
+		recorder.write(2, 5, new byte[] {4});
+		recorder.close();
+
+		ReplayIndex replay = ReplayIndex.open(file.toPath());
+		World world = new World(1);
+		PlaybackRobot robot = new PlaybackRobot(5, replay);
+		PlaybackVM vm = (PlaybackVM)robot.getVM();
+
+		replay.getTrack(5).play(vm, 0);
+		vm.tick();
+		assertEquals(true, vm.checkIO());
+		assertEquals(Arrays.asList(3, 2, 1), Arrays.asList(vm.pop8(), vm.pop8(), vm.pop8()));
+
+		replay.getTrack(5).play(vm, 1);
+		vm.tick();
+		assertEquals(false, vm.checkIO());
+
+		// Frame 0 replays "3" (IO_OVERCLOCK) with "2" as its argument
+		robot.tick(world);
+		assertEquals(2, robot.getOverclock());
+	}
+}
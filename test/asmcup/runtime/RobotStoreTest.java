@@ -0,0 +1,110 @@
+package asmcup.runtime;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RobotStoreTest {
+
+	@Test
+	public void testAddKeepsState() {
+		Robot robot = new Robot(1);
+		robot.position(10, 20);
+		robot.setFacing(1.5f);
+		robot.damage(100);
+
+		RobotStore store = new RobotStore(1);
+		store.add(robot);
+
+		assertTrue(store.contains(robot));
+		assertEquals(10, robot.getX(), 0);
+		assertEquals(20, robot.getY(), 0);
+		assertEquals(1.5f, robot.getFacing(), 0);
+		assertEquals(Robot.BATTERY_MAX - 100, robot.getBattery());
+	}
+
+	@Test
+	public void testAddTwice() {
+		RobotStore store = new RobotStore(1);
+		Robot first = new Robot(1);
+		Robot second = new Robot(2);
+		first.position(10, 20);
+		store.add(first);
+		store.add(second);
+		store.add(first);
+
+		assertEquals(2, store.size());
+		assertSame(first, store.get(0));
+		assertSame(second, store.get(1));
+		assertEquals(10, first.getX(), 0);
+		assertEquals(20, first.getY(), 0);
+	}
+
+	@Test
+	public void testRemoveKeepsOrder() {
+		RobotStore store = new RobotStore(1);
+		Robot[] robots = new Robot[5];
+
+		for (int i = 0; i < robots.length; i++) {
+			robots[i] = new Robot(i);
+			robots[i].position(i, i * 2);
+			store.add(robots[i]);
+		}
+
+		assertTrue(store.remove(robots[1]));
+		assertFalse(store.remove(robots[1]));
+		assertEquals(4, store.size());
+		assertSame(robots[0], store.get(0));
+		assertSame(robots[2], store.get(1));
+		assertSame(robots[4], store.get(3));
+		assertEquals(3, robots[3].getX(), 0);
+		assertEquals(6, robots[3].getY(), 0);
+
+		// A removed robot still has its own state
+		robots[1].position(7, 8);
+		assertEquals(7, robots[1].getX(), 0);
+		assertEquals(2, robots[2].getX(), 0);
+	}
+
+	@Test
+	public void testFindMatchesLinearScan() {
+		Random random = new Random(7);
+		RobotStore store = new RobotStore(4);
+
+		for (int i = 0; i < 300; i++) {
+			Robot robot = new Robot(i);
+			robot.position(random.nextFloat() * 500, random.nextFloat() * 500);
+			store.add(robot);
+		}
+
+		for (int query = 0; query < 2000; query++) {
+			if (query % 10 == 0) {
+				Robot robot = store.get(random.nextInt(store.size()));
+				robot.position(random.nextFloat() * 500, random.nextFloat() * 500);
+			}
+
+			if (query % 100 == 0) {
+				store.remove(store.get(random.nextInt(store.size())));
+			}
+
+			float x = random.nextFloat() * 520 - 10;
+			float y = random.nextFloat() * 520 - 10;
+			int expected = -1;
+
+			for (int i = 0; i < store.size(); i++) {
+				if (Math.abs(store.get(i).getX() - x) < Robot.COLLIDE_RANGE
+				 && Math.abs(store.get(i).getY() - y) < Robot.COLLIDE_RANGE) {
+					expected = i;
+					break;
+				}
+			}
+
+			assertEquals(expected, store.find(x, y, Robot.COLLIDE_RANGE));
+		}
+	}
+}
@@ -6,6 +6,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.util.Arrays;
+import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
@@ -134,7 +135,7 @@ public class RobotTest {
 	public void testIOBattery() {
 		World world = new World();
 		VM vm = robot.getVM();
-		robot.battery = Robot.BATTERY_MAX;
+		robot.setBattery(Robot.BATTERY_MAX);
 		vm.push8(Robot.IO_BATTERY);
 		vm.setIO(true);
 		robot.handleIO(world);
@@ -328,6 +329,55 @@ public class RobotTest {
 		assert(dummy.getBattery() < initialBattery);
 	}
 
+	@Test
+	public void testBulkCyclesMatchPerCycle() {
+		Random random = new Random(99);
+		
+		for (int program = 0; program < 50; program++) {
+			byte[] rom = new byte[256];
+			
+			if (program == 0) {
+				// push8 #IO_BATTERY; io; popf $80; jmp $00
+				rom[0] = (byte)((VM.MAGIC_PUSH_BYTE_IMMEDIATE << 2) | VM.OP_PUSH);
+				rom[1] = Robot.IO_BATTERY;
+				rom[2] = (byte)((VM.F_IO << 2) | VM.OP_FUNC);
+				rom[3] = (byte)((VM.MAGIC_POP_FLOAT << 2) | VM.OP_POP);
+				rom[4] = (byte)0x80;
+				rom[5] = (byte)((VM.MAGIC_BRANCH_ALWAYS << 2) | VM.OP_BRANCH);
+			} else {
+				random.nextBytes(rom);
+			}
+			
+			Robot bulk = new Robot(1, rom);
+			Robot single = new Robot(1, rom) {
+				@Override
+				protected void tickSoftware(World world) {
+					int cyclesUsed = 0;
+					
+					while (cyclesUsed <= overclock) {
+						vm.tick();
+						handleIO(world);
+						cyclesUsed++;
+						setBattery(getBattery() - 1);
+					}
+				}
+			};
+			
+			bulk.setOverclock(random.nextInt(101));
+			single.setOverclock(bulk.getOverclock());
+			World bulkWorld = generateEmptyWorld(100, 100, 50);
+			World singleWorld = generateEmptyWorld(100, 100, 50);
+			
+			for (int frame = 0; frame < 20; frame++) {
+				bulk.tickSoftware(bulkWorld);
+				single.tickSoftware(singleWorld);
+				assertEquals(single.getVM(), bulk.getVM());
+				assertEquals(single.getBattery(), bulk.getBattery());
+				assertEquals(single.getOverclock(), bulk.getOverclock());
+			}
+		}
+	}
+
 	private World generateEmptyWorld(int x, int y, int radius) {
 		World world = new World();
 		for (int i = x - radius; i < x + radius; i += World.TILE_SIZE) {
@@ -4,6 +4,7 @@ import org.junit.Test;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
 
@@ -42,4 +43,48 @@ public class TileTest {
 					world.canSpawnRobotAt(World.TILE_HALF, World.TILE_HALF));
 		}
 	}
+
+	@Test
+	public void testPropertyTable() {
+		for (int tile = 0; tile < 256; tile++) {
+			assertEquals(TILE.IS_SOLID.presentIn(tile), TILE.hasProperty(tile, TILE.PROP_SOLID));
+			assertEquals(TILE.IS_WALL.presentIn(tile), TILE.hasProperty(tile, TILE.PROP_WALL));
+			assertEquals(TILE.IS_HAZARD.presentIn(tile), TILE.hasProperty(tile, TILE.PROP_HAZARD));
+			assertEquals(TILE.IS_OBSTACLE.presentIn(tile), TILE.hasProperty(tile, TILE.PROP_OBSTACLE));
+			assertEquals(TILE.IS_SPAWNABLE.presentIn(tile), TILE.hasProperty(tile, TILE.PROP_SPAWNABLE));
+			assertEquals(TILE.IS_UNSPAWNABLE.presentIn(tile), TILE.hasProperty(tile, TILE.PROP_UNSPAWNABLE));
+		}
+	}
+
+	@Test
+	public void testCheckTileNearMatchesProperty() {
+		World world = new World(5);
+		Random random = new Random(5);
+
+		for (int i = 0; i < 5000; i++) {
+			// Mix points in the middle of the world with ones at the edges
+			float x = (i % 2 == 0) ? World.CENTER + random.nextFloat() * 2000 : random.nextFloat() * 60 - 20;
+			float y = (i % 3 == 0) ? World.SIZE - random.nextFloat() * 60 + 20 : World.CENTER + random.nextFloat() * 2000;
+			float r = Robot.COLLIDE_RANGE;
+
+			assertEquals(world.checkTileNear(TILE.IS_SOLID, x, y, r), world.checkTileNear(TILE.PROP_SOLID, x, y, r));
+			assertEquals(world.checkTileNear(TILE.IS_UNSPAWNABLE, x, y, r), world.checkTileNear(TILE.PROP_UNSPAWNABLE, x, y, r));
+		}
+	}
+
+	@Test
+	public void testCheckTileNearLargeRadius() {
+		World world = new World(5);
+		Random random = new Random(9);
+
+		for (int i = 0; i < 5000; i++) {
+			float x = World.CENTER + random.nextFloat() * 2000;
+			float y = World.CENTER + random.nextFloat() * 2000;
+			// Up to two tiles out, so the center tile lies between the corners
+			float r = random.nextFloat() * World.TILE_SIZE * 2;
+
+			assertEquals(world.checkTileNear(TILE.IS_SOLID, x, y, r), world.checkTileNear(TILE.PROP_SOLID, x, y, r));
+			assertEquals(world.checkTileNear(TILE.IS_HAZARD, x, y, r), world.checkTileNear(TILE.PROP_HAZARD, x, y, r));
+		}
+	}
 }
@@ -0,0 +1,142 @@
+package asmcup.runtime;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WorldTest {
+
+	@Test
+	public void testRestoredWorldContinuesIdentically() {
+		Random random = new Random(8);
+		World world = new World(8);
+
+		for (int id = 0; id < 20; id++) {
+			byte[] rom = new byte[256];
+			random.nextBytes(rom);
+			Robot robot = new Robot(id, rom);
+			world.randomizePosition(robot);
+			world.addRobot(robot);
+		}
+
+		for (int frame = 0; frame < 100; frame++) {
+			world.tick();
+		}
+
+		byte[] snapshot = world.snapshot();
+		World restored = World.restore(snapshot);
+		assertArrayEquals(snapshot, restored.snapshot());
+		assertEquals(world.getFrame(), restored.getFrame());
+
+		for (int frame = 0; frame < 100; frame++) {
+			world.tick();
+			restored.tick();
+		}
+
+		assertArrayEquals(world.snapshot(), restored.snapshot());
+	}
+
+	@Test
+	public void testOnlyModifiedCellsAreSaved() {
+		World world = new World(3);
+		world.getTileXY(World.CENTER, World.CENTER);
+		byte[] untouched = world.snapshot();
+		assertFalse(world.getCellXY(World.CENTER, World.CENTER).isModified());
+
+		world.setTileXY(World.CENTER, World.CENTER, TILE.WALL);
+		world.mark(new Robot(1), 2, 42);
+		byte[] changed = world.snapshot();
+		assertTrue(changed.length > untouched.length);
+
+		World restored = World.restore(changed);
+		assertEquals(TILE.WALL, restored.getTileXY(World.CENTER, World.CENTER));
+		assertEquals(42, restored.markRead(new Robot(1), 2));
+		assertTrue(Arrays.equals(changed, restored.snapshot()));
+	}
+
+	@Test
+	public void testCachedCellsMatchGeneratedCells() {
+		CellCache cache = new CellCache();
+		World generated = new World(12, null);
+		World first = new World(12, cache);
+		World cached = new World(12, cache);
+
+		for (int row = 0; row <= World.CELL_COUNT + 1; row += 3) {
+			for (int col = 0; col <= World.CELL_COUNT + 1; col += 3) {
+				first.getCell(col, row);
+			}
+		}
+
+		assertTrue(cache.size() > 0);
+
+		for (int row = 0; row <= World.CELL_COUNT + 1; row += 3) {
+			for (int col = 0; col <= World.CELL_COUNT + 1; col += 3) {
+				Cell expected = generated.getCell(col, row);
+				Cell actual = cached.getCell(col, row);
+				assertArrayEquals(expected.tiles, actual.tiles);
+				assertEquals(expected.items.size(), actual.items.size());
+				assertFalse(actual.isModified());
+
+				for (int i = 0; i < expected.items.size(); i++) {
+					Item item = expected.items.get(i);
+					assertEquals(item.getX(), actual.items.get(i).getX(), 0);
+					assertEquals(item.getY(), actual.items.get(i).getY(), 0);
+					assertEquals(item.getValue(), actual.items.get(i).getValue());
+				}
+			}
+		}
+
+		// Editing a cached cell must not leak into the template
+		cached.setTileXY(World.CENTER, World.CENTER, TILE.WALL);
+		World fresh = new World(12, cache);
+		assertEquals(generated.getTileXY(World.CENTER, World.CENTER), fresh.getTileXY(World.CENTER, World.CENTER));
+	}
+
+	@Test
+	public void testCellsShareTemplateUntilWritten() {
+		CellCache cache = new CellCache();
+		World a = new World(30, cache);
+		World b = new World(30, cache);
+		Cell cellA = null, cellB = null;
+
+		for (int col = 1; cellA == null || cellA.items.isEmpty(); col++) {
+			cellA = a.getCell(col, 5);
+			cellB = b.getCell(col, 5);
+		}
+
+		assertTrue(cellA.tiles == cellB.tiles);
+		assertTrue(cellA.items == cellB.items);
+
+		Item item = cellA.items.get(0);
+		int count = cellA.items.size();
+		cellA.removeItem(item);
+		cellA.setTile(0, 0, TILE.WALL);
+		assertEquals(count - 1, cellA.items.size());
+		assertEquals(count, cellB.items.size());
+		assertTrue(cellA.tiles != cellB.tiles);
+		assertTrue(cellB.items.contains(item));
+		assertFalse(cellB.isModified());
+	}
+
+	@Test
+	public void testTilesRoundTripThroughBytes() {
+		World world = new World(4, null);
+		Cell cell = world.getCell(3, 3);
+
+		for (int tile = 0; tile <= (TILE.TYPE_BITS | TILE.VARIATION_BITS); tile++) {
+			cell.setTile(1, 2, tile);
+			assertEquals(tile, cell.getTile(1, 2));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTileWiderThanByteIsRejected() {
+		new World(4, null).getCell(3, 3).setTile(1, 2, 0x100);
+	}
+}
@@ -0,0 +1,130 @@
+package asmcup.vm;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static asmcup.vm.VMConsts.*;
+
+public class JitVMTest {
+
+	@Test
+	public void testRandomProgramsMatchInterpreter() {
+		Random random = new Random(1234);
+
+		for (int program = 0; program < 200; program++) {
+			byte[] ram = new byte[256];
+			random.nextBytes(ram);
+			VM interpreted = new VM(ram.clone());
+			JitVM jit = new JitVM(ram.clone());
+			jit.threshold = 1;
+			jit.setVerifying(true);
+
+			for (int run = 0; run < 50; run++) {
+				int cycles = jit.run(64);
+
+				for (int i = 0; i < cycles; i++) {
+					interpreted.tick();
+				}
+
+				assertEquals("Program " + program + " diverged in run " + run, interpreted, jit);
+				jit.checkIO();
+				interpreted.checkIO();
+			}
+		}
+	}
+
+	@Test
+	public void testLoopIsCompiled() {
+		// loop: push8 $80; c_1; add8; pop8 $80; jmp loop
+		byte[] ram = new byte[256];
+		ram[0] = (byte)((MAGIC_PUSH_BYTE_MEMORY << 2) | OP_PUSH);
+		ram[1] = (byte)0x80;
+		ram[2] = (byte)((F_C_1 << 2) | OP_FUNC);
+		ram[3] = (byte)((F_ADD8 << 2) | OP_FUNC);
+		ram[4] = (byte)((MAGIC_POP_BYTE << 2) | OP_POP);
+		ram[5] = (byte)0x80;
+		ram[6] = (byte)((MAGIC_BRANCH_ALWAYS << 2) | OP_BRANCH);
+		ram[7] = 0x00;
+
+		JitVM vm = new JitVM(ram);
+		vm.threshold = 2;
+		vm.setVerifying(true);
+
+		assertEquals(500, vm.run(500));
+		assertEquals(100, vm.read8(0x80));
+		assertNotNull(vm.lookup(0));
+	}
+
+	@Test
+	public void testSelfModifyingBlock() {
+		// loop: push8 #$05; c_1; add8; dup8; pop8 $01; pop8 $80; jmp loop
+		// The first pop rewrites the operand of the push the block starts with
+		byte[] ram = new byte[256];
+		ram[0] = (byte)((MAGIC_PUSH_BYTE_IMMEDIATE << 2) | OP_PUSH);
+		ram[1] = 0x05;
+		ram[2] = (byte)((F_C_1 << 2) | OP_FUNC);
+		ram[3] = (byte)((F_ADD8 << 2) | OP_FUNC);
+		ram[4] = (byte)((F_DUP8 << 2) | OP_FUNC);
+		ram[5] = (byte)((MAGIC_POP_BYTE << 2) | OP_POP);
+		ram[6] = 0x01;
+		ram[7] = (byte)((MAGIC_POP_BYTE << 2) | OP_POP);
+		ram[8] = (byte)0x80;
+		ram[9] = (byte)((MAGIC_BRANCH_ALWAYS << 2) | OP_BRANCH);
+		ram[10] = 0x00;
+
+		VM interpreted = new VM(ram.clone());
+		JitVM jit = new JitVM(ram.clone());
+		jit.threshold = 1;
+		jit.setVerifying(true);
+
+		for (int i = 0; i < 70; i++) {
+			interpreted.tick();
+		}
+
+		assertEquals(70, jit.run(70));
+		assertEquals(interpreted, jit);
+		// Ten passes, each one adding to the value the last one wrote
+		assertEquals(15, jit.read8(0x80));
+		assertEquals(15, jit.read8(0x01));
+
+		// Writing over compiled code from outside must be observed too
+		jit.write8(1, 0x2a);
+		interpreted.write8(1, 0x2a);
+
+		for (int i = 0; i < 7; i++) {
+			interpreted.tick();
+		}
+
+		assertEquals(7, jit.run(7));
+		assertEquals(interpreted, jit);
+		assertEquals(0x2b, jit.read8(0x80));
+	}
+
+	@Test
+	public void testWriteAheadInBlock() {
+		// loop: push8 #$2a; pop8 $05; push8 #$00; pop8 $80; jmp loop
+		// The block is compiled with the second push's operand still 0, and
+		// has to notice the pop overwriting it before it gets there
+		byte[] ram = new byte[256];
+		ram[0] = (byte)((MAGIC_PUSH_BYTE_IMMEDIATE << 2) | OP_PUSH);
+		ram[1] = 0x2a;
+		ram[2] = (byte)((MAGIC_POP_BYTE << 2) | OP_POP);
+		ram[3] = 0x05;
+		ram[4] = (byte)((MAGIC_PUSH_BYTE_IMMEDIATE << 2) | OP_PUSH);
+		ram[5] = 0x00;
+		ram[6] = (byte)((MAGIC_POP_BYTE << 2) | OP_POP);
+		ram[7] = (byte)0x80;
+		ram[8] = (byte)((MAGIC_BRANCH_ALWAYS << 2) | OP_BRANCH);
+		ram[9] = 0x00;
+
+		JitVM jit = new JitVM(ram);
+		jit.threshold = 1;
+		jit.setVerifying(true);
+
+		assertEquals(5, jit.run(5));
+		assertEquals(0x2a, jit.read8(0x80));
+	}
+}
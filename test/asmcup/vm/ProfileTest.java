@@ -0,0 +1,95 @@
+package asmcup.vm;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static asmcup.vm.VMConsts.*;
+
+public class ProfileTest {
+
+	// loop: push8 $80; c_1; add8; pop8 $80; jmp loop
+	private static byte[] loop() {
+		byte[] ram = new byte[256];
+		ram[0] = (byte)((MAGIC_PUSH_BYTE_MEMORY << 2) | OP_PUSH);
+		ram[1] = (byte)0x80;
+		ram[2] = (byte)((F_C_1 << 2) | OP_FUNC);
+		ram[3] = (byte)((F_ADD8 << 2) | OP_FUNC);
+		ram[4] = (byte)((MAGIC_POP_BYTE << 2) | OP_POP);
+		ram[5] = (byte)0x80;
+		ram[6] = (byte)((MAGIC_BRANCH_ALWAYS << 2) | OP_BRANCH);
+		ram[7] = 0x00;
+		return ram;
+	}
+
+	@Test
+	public void testCountsInstructions() {
+		VM vm = new VM(loop());
+		Profile profile = new Profile();
+		vm.setProfile(profile);
+
+		for (int i = 0; i < 50; i++) {
+			vm.tick();
+		}
+
+		assertEquals(50, profile.getInstructions());
+		assertEquals(10, profile.getAddress(0));
+		assertEquals(10, profile.getAddress(2));
+		assertEquals(0, profile.getAddress(1));
+		assertEquals(20, profile.getOpcode(OP_FUNC));
+		assertEquals(10, profile.getOpcode(OP_BRANCH));
+		assertEquals(10, profile.getFunc(F_ADD8));
+	}
+
+	@Test
+	public void testJitCountsLikeInterpreter() {
+		VM interpreted = new VM(loop());
+		JitVM jit = new JitVM(loop());
+		jit.threshold = 1;
+		Profile expected = new Profile();
+		Profile actual = new Profile();
+		interpreted.setProfile(expected);
+		jit.setProfile(actual);
+
+		int cycles = jit.run(500);
+
+		for (int i = 0; i < cycles; i++) {
+			interpreted.tick();
+		}
+
+		for (int addr = 0; addr < 256; addr++) {
+			assertEquals(expected.getAddress(addr), actual.getAddress(addr));
+		}
+
+		assertEquals(interpreted, jit);
+	}
+
+	@Test
+	public void testWriteIsSortedByCount() {
+		Profile profile = new Profile();
+		profile.count(4, (F_C_1 << 2) | OP_FUNC);
+		profile.count(5, (F_C_1 << 2) | OP_FUNC);
+		profile.count(5, (F_C_1 << 2) | OP_FUNC);
+		profile.count(5, (F_C_1 << 2) | OP_FUNC);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		profile.write(new PrintStream(bytes, true));
+		String[] lines = bytes.toString().split("\\R");
+
+		assertEquals("instructions 4", lines[0]);
+		assertEquals("pc $05 3 75.00%", lines[1]);
+		assertEquals("pc $04 1 25.00%", lines[2]);
+		assertEquals("op func 4 100.00%", lines[3]);
+		assertTrue(lines[4].startsWith("func c_1 4"));
+	}
+
+	@Test
+	public void testFuncNamesMatchCompiler() {
+		for (int func = 0; func < 64; func++) {
+			assertEquals(func, VMFuncTable.parse(Profile.FUNC_NAMES[func]));
+		}
+	}
+}
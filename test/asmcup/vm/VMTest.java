@@ -7,8 +7,10 @@ import org.junit.Test;
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
+import static asmcup.vm.VMConsts.*;
 
 public class VMTest {
 
@@ -239,6 +241,113 @@ public class VMTest {
     	Assert.assertTrue(vm.popFloat() == 1.3f);
     }
 
+	@Test
+	public void testPredecodedMatchesInterpreter() {
+		Random random = new Random(1234);
+		
+		for (int program = 0; program < 100; program++) {
+			byte[] ram = new byte[256];
+			random.nextBytes(ram);
+			VM interpreted = new VM(ram.clone());
+			VM predecoded = new VM(ram.clone());
+			predecoded.setPredecoded(true);
+			
+			for (int i = 0; i < 2000; i++) {
+				interpreted.tick();
+				predecoded.tick();
+				assertEquals("Program " + program + " diverged at cycle " + i, interpreted, predecoded);
+			}
+		}
+	}
+	
+	@Test
+	public void testPredecodedSelfModifying() {
+		// push8 #$05; jmp $00
+		byte[] ram = new byte[256];
+		ram[0] = (byte)((MAGIC_PUSH_BYTE_IMMEDIATE << 2) | OP_PUSH);
+		ram[1] = 0x05;
+		ram[2] = (byte)((MAGIC_BRANCH_ALWAYS << 2) | OP_BRANCH);
+		ram[3] = 0x00;
+		vm = new VM(ram);
+		vm.setPredecoded(true);
+		
+		vm.tick();
+		vm.tick();
+		assertEquals(0x05, vm.pop8());
+		
+		// Changing the operand must discard the decoded push8
+		vm.write8(1, 0x2a);
+		vm.tick();
+		assertEquals(0x2a, vm.pop8());
+	}
+
+	@Test
+	public void testPredecodedRunSelfModifying() {
+		// loop: push8 #$05; c_1; add8; dup8; pop8 $01; pop8 $80; jmp loop
+		// Every pass writes its result over the operand of the push
+		byte[] ram = new byte[256];
+		ram[0] = (byte)((MAGIC_PUSH_BYTE_IMMEDIATE << 2) | OP_PUSH);
+		ram[1] = 0x05;
+		ram[2] = (byte)((F_C_1 << 2) | OP_FUNC);
+		ram[3] = (byte)((F_ADD8 << 2) | OP_FUNC);
+		ram[4] = (byte)((F_DUP8 << 2) | OP_FUNC);
+		ram[5] = (byte)((MAGIC_POP_BYTE << 2) | OP_POP);
+		ram[6] = 0x01;
+		ram[7] = (byte)((MAGIC_POP_BYTE << 2) | OP_POP);
+		ram[8] = (byte)0x80;
+		ram[9] = (byte)((MAGIC_BRANCH_ALWAYS << 2) | OP_BRANCH);
+		ram[10] = 0x00;
+		
+		VM interpreted = new VM(ram.clone());
+		VM predecoded = new VM(ram.clone());
+		predecoded.setPredecoded(true);
+		
+		for (int i = 0; i < 70; i++) {
+			interpreted.tick();
+		}
+		
+		assertEquals(70, predecoded.run(70));
+		assertEquals(interpreted, predecoded);
+		assertEquals(15, predecoded.read8(0x80));
+		
+		// Retargeting the jump from outside skips the first push from now on
+		predecoded.write8(10, 0x02);
+		interpreted.write8(10, 0x02);
+		
+		for (int i = 0; i < 70; i++) {
+			interpreted.tick();
+		}
+		
+		assertEquals(70, predecoded.run(70));
+		assertEquals(interpreted, predecoded);
+	}
+	
+	@Test
+	public void testPredecodedRunMatchesInterpreter() {
+		Random random = new Random(4321);
+		
+		for (int program = 0; program < 100; program++) {
+			byte[] ram = new byte[256];
+			random.nextBytes(ram);
+			VM interpreted = new VM(ram.clone());
+			VM predecoded = new VM(ram.clone());
+			predecoded.setPredecoded(true);
+			
+			for (int round = 0; round < 100; round++) {
+				int cycles = 0;
+				
+				do {
+					interpreted.tick();
+					cycles++;
+				} while (!interpreted.checkIO() && cycles < 50);
+				
+				assertEquals(cycles, predecoded.run(50));
+				predecoded.checkIO();
+				assertEquals("Program " + program + " diverged in round " + round, interpreted, predecoded);
+			}
+		}
+	}
+
 	/**
 	 * Returns a little endian byte buffer for given ram
 	 * @param ram ram to wrap byte buffer around